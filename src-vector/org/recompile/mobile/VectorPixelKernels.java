@@ -0,0 +1,380 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import com.nokia.mid.ui.DirectGraphics;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+
+	Vector Pixel Kernels
+
+	PixelKernels written with the incubating Vector API, one vector of
+	pixels per step in the JVM's preferred width. The ends of runs
+	shorter than a vector go to the scalar versions.
+
+	Kept out of src/ since it needs --add-modules jdk.incubator.vector
+	to compile and to load. PixelKernels.get() only reaches this class
+	by reflection, so everything else builds and runs without it.
+
+*/
+
+public class VectorPixelKernels extends PixelKernels
+{
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final int LANES = INTS.length();
+
+	private VectorSpecies<Short> shorts;
+	private VectorShuffle<Short> lowShorts;
+	private VectorShuffle<Byte> rgb888;
+	private VectorShuffle<Byte> rgb565Little;
+	private VectorShuffle<Byte> rgb565Big;
+
+	public VectorPixelKernels()
+	{
+		if(LANES<4) { throw new UnsupportedOperationException("vectors hold "+LANES+" ints"); }
+
+		shorts = VectorSpecies.of(short.class, VectorShape.forBitSize(INTS.vectorBitSize()/2));
+
+		// Picking parts of each int, reinterpretAs...() is little-endian per lane //
+		int[] pickShorts = new int[LANES*2];
+		int[] pick888 = new int[LANES*4];
+		int[] pickLittle = new int[LANES*4];
+		int[] pickBig = new int[LANES*4];
+		for(int i=0; i<LANES; i++) { pickShorts[i] = i*2; }
+		for(int i=0; i<LANES*3; i++) { pick888[i] = (i/3)*4 + 2-(i%3); }
+		for(int i=0; i<LANES*2; i++)
+		{
+			pickLittle[i] = (i/2)*4 + (i%2);
+			pickBig[i] = (i/2)*4 + 1-(i%2);
+		}
+		IntVector zero = IntVector.zero(INTS);
+		lowShorts = VectorShuffle.fromArray(zero.reinterpretAsShorts().species(), pickShorts, 0);
+		rgb888 = VectorShuffle.fromArray(zero.reinterpretAsBytes().species(), pick888, 0);
+		rgb565Little = VectorShuffle.fromArray(zero.reinterpretAsBytes().species(), pickLittle, 0);
+		rgb565Big = VectorShuffle.fromArray(zero.reinterpretAsBytes().species(), pickBig, 0);
+	}
+
+	public String getName() { return "vector (" + INTS.vectorBitSize() + " bit)"; }
+
+	/*
+		One method per format below, so each loop is compiled on its own.
+		In one method, C2 stops inlining the vector calls once a few
+		formats are in use and the vectors end up boxed.
+	*/
+	public void toARGB(short[] src, int s, int[] dst, int d, int count, int format)
+	{
+		int i = 0;
+		switch(format)
+		{
+			case DirectGraphics.TYPE_USHORT_1555_ARGB:
+				i = from1555(src, s, dst, d, count);
+				break;
+			case DirectGraphics.TYPE_USHORT_444_RGB:
+				i = from444(src, s, dst, d, count);
+				break;
+			case DirectGraphics.TYPE_USHORT_4444_ARGB:
+				i = from4444(src, s, dst, d, count);
+				break;
+			case DirectGraphics.TYPE_USHORT_555_RGB:
+				i = from555(src, s, dst, d, count);
+				break;
+			case DirectGraphics.TYPE_USHORT_565_RGB:
+				i = from565(src, s, dst, d, count);
+				break;
+		}
+		super.toARGB(src, s+i, dst, d+i, count-i, format);
+	}
+
+	public void fromARGB(int[] src, int s, short[] dst, int d, int count, int format)
+	{
+		int i = 0;
+		switch(format)
+		{
+			case DirectGraphics.TYPE_USHORT_1555_ARGB:
+				i = to1555(src, s, dst, d, count);
+				break;
+			case DirectGraphics.TYPE_USHORT_444_RGB:
+				i = to444(src, s, dst, d, count);
+				break;
+			case DirectGraphics.TYPE_USHORT_4444_ARGB:
+				i = to4444(src, s, dst, d, count);
+				break;
+			case DirectGraphics.TYPE_USHORT_555_RGB:
+				i = to555(src, s, dst, d, count);
+				break;
+			case DirectGraphics.TYPE_USHORT_565_RGB:
+				i = to565(src, s, dst, d, count);
+				break;
+		}
+		super.fromARGB(src, s+i, dst, d+i, count-i, format);
+	}
+
+	/*
+		Each step stores a whole vector of bytes but only the first 3/4
+		are pixels, the rest are overwritten by the next pixels. So the
+		loop stops while enough pixels are left to cover that.
+	*/
+	public void packRGB888(int[] src, int s, byte[] dst, int d, int count)
+	{
+		int i = 0;
+		int spare = (LANES+2)/3;
+		for(; i+LANES+spare<=count; i+=LANES, d+=LANES*3)
+		{
+			IntVector.fromArray(INTS, src, s+i).reinterpretAsBytes().rearrange(rgb888).intoArray(dst, d);
+		}
+		super.packRGB888(src, s+i, dst, d, count-i);
+	}
+
+	public void packRGB565(int[] src, int s, byte[] dst, int d, int count, boolean littleEndian)
+	{
+		VectorShuffle<Byte> pick = littleEndian ? rgb565Little : rgb565Big;
+		int i = 0;
+		for(; i+LANES*2<=count; i+=LANES, d+=LANES*2)
+		{
+			to565(IntVector.fromArray(INTS, src, s+i)).reinterpretAsBytes().rearrange(pick).intoArray(dst, d);
+		}
+		super.packRGB565(src, s+i, dst, d, count-i, littleEndian);
+	}
+
+	public void opaque(int[] src, int s, int[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES; i+=LANES)
+		{
+			IntVector.fromArray(INTS, src, s+i).or(0xFF000000).intoArray(dst, d+i);
+		}
+		super.opaque(src, s+i, dst, d+i, count-i);
+	}
+
+	public void masked(int[] src, int s, int[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES; i+=LANES)
+		{
+			IntVector pixel = IntVector.fromArray(INTS, src, s+i);
+			VectorMask<Integer> visible = pixel.lanewise(VectorOperators.LSHR, 24).compare(VectorOperators.NE, 0);
+			if(visible.allTrue()) { pixel.intoArray(dst, d+i); }
+			else if(visible.anyTrue()) { IntVector.fromArray(INTS, dst, d+i).blend(pixel, visible).intoArray(dst, d+i); }
+		}
+		super.masked(src, s+i, dst, d+i, count-i);
+	}
+
+	/*
+		Onto opaque pixels Blitter.blend comes down to dividing by 255,
+		which has an exact shift form for these sums. Other destinations
+		need a real division per channel, those vectors go to the scalar
+		version.
+	*/
+	public void blend(int[] src, int s, int[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES; i+=LANES)
+		{
+			IntVector pixel = IntVector.fromArray(INTS, src, s+i);
+			IntVector alpha = pixel.lanewise(VectorOperators.LSHR, 24);
+			if(alpha.eq(0xFF).allTrue()) { pixel.intoArray(dst, d+i); continue; }
+			if(alpha.eq(0).allTrue()) { continue; }
+
+			IntVector under = IntVector.fromArray(INTS, dst, d+i);
+			if(!under.lanewise(VectorOperators.LSHR, 24).eq(0xFF).allTrue())
+			{
+				super.blend(src, s+i, dst, d+i, LANES);
+				continue;
+			}
+
+			IntVector weight = alpha.neg().add(0xFF);
+			IntVector r = div255(field(pixel, 16, 0xFF).mul(alpha).add(field(under, 16, 0xFF).mul(weight)));
+			IntVector g = div255(field(pixel, 8, 0xFF).mul(alpha).add(field(under, 8, 0xFF).mul(weight)));
+			IntVector b = div255(pixel.and(0xFF).mul(alpha).add(under.and(0xFF).mul(weight)));
+			r.lanewise(VectorOperators.LSHL, 16).or(g.lanewise(VectorOperators.LSHL, 8)).or(b).or(0xFF000000).intoArray(dst, d+i);
+		}
+		super.blend(src, s+i, dst, d+i, count-i);
+	}
+
+	// x/255 for 0 <= x <= 255*255 //
+	private static IntVector div255(IntVector x)
+	{
+		return x.add(x.lanewise(VectorOperators.LSHR, 8)).add(1).lanewise(VectorOperators.LSHR, 8);
+	}
+
+	private IntVector load(short[] src, int s)
+	{
+		return ((IntVector)ShortVector.fromArray(shorts, src, s).convertShape(VectorOperators.S2I, INTS, 0)).and(0xFFFF);
+	}
+
+	/*
+		Stores a whole vector of shorts, of which the first half are the
+		pixels. The loops stop while the next pixels can overwrite the rest.
+	*/
+	private void store(IntVector c, short[] dst, int d)
+	{
+		c.reinterpretAsShorts().rearrange(lowShorts).intoArray(dst, d);
+	}
+
+	private int from1555(short[] src, int s, int[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES; i+=LANES)
+		{
+			IntVector c = load(src, s+i);
+			argb(field(c, 15, 0x01).mul(0xFF), expand5(field(c, 10, 0x1F)), expand5(field(c, 5, 0x1F)), expand5(c.and(0x1F))).intoArray(dst, d+i);
+		}
+		return i;
+	}
+
+	private int from444(short[] src, int s, int[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES; i+=LANES)
+		{
+			IntVector c = load(src, s+i);
+			argb(null, expand4(field(c, 8, 0xF)), expand4(field(c, 4, 0xF)), expand4(c.and(0xF))).intoArray(dst, d+i);
+		}
+		return i;
+	}
+
+	private int from4444(short[] src, int s, int[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES; i+=LANES)
+		{
+			IntVector c = load(src, s+i);
+			argb(expand4(field(c, 12, 0xF)), expand4(field(c, 8, 0xF)), expand4(field(c, 4, 0xF)), expand4(c.and(0xF))).intoArray(dst, d+i);
+		}
+		return i;
+	}
+
+	private int from555(short[] src, int s, int[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES; i+=LANES)
+		{
+			IntVector c = load(src, s+i);
+			argb(null, expand5(field(c, 10, 0x1F)), expand5(field(c, 5, 0x1F)), expand5(c.and(0x1F))).intoArray(dst, d+i);
+		}
+		return i;
+	}
+
+	private int from565(short[] src, int s, int[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES; i+=LANES)
+		{
+			IntVector c = load(src, s+i);
+			IntVector g = field(c, 5, 0x3F);
+			g = g.lanewise(VectorOperators.LSHL, 2).or(g.lanewise(VectorOperators.LSHR, 4));
+			argb(null, expand5(field(c, 11, 0x1F)), g, expand5(c.and(0x1F))).intoArray(dst, d+i);
+		}
+		return i;
+	}
+
+	private int to1555(int[] src, int s, short[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES*2; i+=LANES)
+		{
+			IntVector c = IntVector.fromArray(INTS, src, s+i);
+			store(pack(c.lanewise(VectorOperators.LSHR, 31), 15, field(c, 19, 0x1F), 10, field(c, 11, 0x1F), 5, field(c, 3, 0x1F)), dst, d+i);
+		}
+		return i;
+	}
+
+	private int to444(int[] src, int s, short[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES*2; i+=LANES)
+		{
+			IntVector c = IntVector.fromArray(INTS, src, s+i);
+			store(pack(null, 0, field(c, 20, 0xF), 8, field(c, 12, 0xF), 4, field(c, 4, 0xF)), dst, d+i);
+		}
+		return i;
+	}
+
+	private int to4444(int[] src, int s, short[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES*2; i+=LANES)
+		{
+			IntVector c = IntVector.fromArray(INTS, src, s+i);
+			store(pack(field(c, 28, 0xF), 12, field(c, 20, 0xF), 8, field(c, 12, 0xF), 4, field(c, 4, 0xF)), dst, d+i);
+		}
+		return i;
+	}
+
+	private int to555(int[] src, int s, short[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES*2; i+=LANES)
+		{
+			IntVector c = IntVector.fromArray(INTS, src, s+i);
+			store(pack(null, 0, field(c, 19, 0x1F), 10, field(c, 11, 0x1F), 5, field(c, 3, 0x1F)), dst, d+i);
+		}
+		return i;
+	}
+
+	private int to565(int[] src, int s, short[] dst, int d, int count)
+	{
+		int i = 0;
+		for(; i<=count-LANES*2; i+=LANES)
+		{
+			store(to565(IntVector.fromArray(INTS, src, s+i)), dst, d+i);
+		}
+		return i;
+	}
+
+	private static IntVector to565(IntVector c)
+	{
+		return pack(null, 0, field(c, 19, 0x1F), 11, field(c, 10, 0x3F), 5, field(c, 3, 0x1F));
+	}
+
+	// Alpha is 0xFF when a is null //
+	private static IntVector argb(IntVector a, IntVector r, IntVector g, IntVector b)
+	{
+		IntVector out = r.lanewise(VectorOperators.LSHL, 16).or(g.lanewise(VectorOperators.LSHL, 8)).or(b);
+		return a==null ? out.or(0xFF000000) : out.or(a.lanewise(VectorOperators.LSHL, 24));
+	}
+
+	private static IntVector pack(IntVector a, int aShift, IntVector r, int rShift, IntVector g, int gShift, IntVector b)
+	{
+		IntVector out = r.lanewise(VectorOperators.LSHL, rShift).or(g.lanewise(VectorOperators.LSHL, gShift)).or(b);
+		if(a!=null) { out = out.or(a.lanewise(VectorOperators.LSHL, aShift)); }
+		return out;
+	}
+
+	private static IntVector field(IntVector c, int shift, int mask)
+	{
+		return c.lanewise(VectorOperators.LSHR, shift).and(mask);
+	}
+
+	private static IntVector expand5(IntVector v)
+	{
+		return v.lanewise(VectorOperators.LSHL, 3).or(v.lanewise(VectorOperators.LSHR, 2));
+	}
+
+	private static IntVector expand4(IntVector v)
+	{
+		return v.lanewise(VectorOperators.LSHL, 4).or(v);
+	}
+}
@@ -43,8 +43,6 @@ public class Display
 
 	private Displayable current;
 
-	private static Display display;
-
 	public Vector<Runnable> serialCalls;
 
 	private Timer timer;
@@ -53,8 +51,6 @@ public class Display
 
 	public Display()
 	{
-		display = this;
-
 		Mobile.setDisplay(this);
 
 		serialCalls = new Vector<Runnable>(16);
@@ -119,7 +115,7 @@ public class Display
 
 	public Displayable getCurrent() { return current; }
 
-	public static Display getDisplay(MIDlet m) { return display; }
+	public static Display getDisplay(MIDlet m) { return Mobile.getDisplay(); }
 
 	public boolean isColor() { return true; }
 
@@ -42,7 +42,10 @@ public final class Font
 	private int style;
 	private int size;
 
-	private static Font defaultFont = new Font(Font.FACE_SYSTEM, Font.STYLE_PLAIN, Font.SIZE_MEDIUM);
+	// One Font per face, style and size, by fontIndex //
+	private static Font[] fonts = new Font[3*8*3];
+
+	private static Font defaultFont = getFont(Font.FACE_SYSTEM, Font.STYLE_PLAIN, Font.SIZE_MEDIUM);
 
 	public PlatformFont platformFont;
 
@@ -56,15 +59,14 @@ public final class Font
 
 	public int charsWidth(char[] ch, int offset, int length)
 	{
-		int len = 0;
-		for(int i=offset; i<ch.length+length; i++)
-		{
-			if(i<ch.length) { len += charWidth(ch[i]); }
-		}
-		return len;
+		// Characters outside the array count for nothing //
+		int start = Math.max(0, offset);
+		int end = Math.min(ch.length, offset+length);
+		if(start>=end) { return 0; }
+		return platformFont.textWidth(null, ch, start, end-start);
 	}
 
-	public int charWidth(char ch) { return stringWidth(String.valueOf(ch)); }
+	public int charWidth(char ch) { return platformFont.charWidth(ch); }
 
 	public int getBaselinePosition() { return convertSize(size); }
 
@@ -74,7 +76,19 @@ public final class Font
 
 	public static Font getFont(int fontSpecifier) { return defaultFont; }
 
-	public static Font getFont(int face, int style, int size) { return new Font(face, style, size); }
+	public static synchronized Font getFont(int face, int style, int size)
+	{
+		int index = fontIndex(face, style, size);
+		if(index<0) { return new Font(face, style, size); } // not a MIDP font, don't keep it
+		if(fonts[index]==null) { fonts[index] = new Font(face, style, size); }
+		return fonts[index];
+	}
+
+	private static int fontIndex(int face, int style, int size)
+	{
+		if((face & ~0x60)!=0 || face==0x60 || (style & ~7)!=0 || (size & ~0x18)!=0 || size==0x18) { return -1; }
+		return ((face>>5)*8 + style)*3 + (size>>3);
+	}
 
 	public int getHeight() { return convertSize(size); }
 
@@ -99,7 +113,7 @@ public final class Font
 
 	public int substringWidth(String str, int offset, int len)
 	{
-		return stringWidth(str.substring(offset, offset+len));
+		return platformFont.textWidth(str, null, offset, len);
 	}
 
 	private int convertSize(int size)
@@ -24,16 +24,19 @@ import javax.microedition.lcdui.game.*;
 import javax.microedition.pki.*;
 import javax.microedition.rms.*;
 
+import org.recompile.mobile.Mobile;
+
 public abstract class MIDlet
 {
 
-	public static HashMap<String, String> properties;
+	private HashMap<String, String> properties;
 
 	private Display display = new Display();
 
 	protected MIDlet()
 	{
 		System.out.println("Create MIDlet");
+		properties = Mobile.getPlatform().loader.getAppProperties();
 	}
 
 
@@ -51,11 +54,6 @@ public abstract class MIDlet
 		return properties.get(key);
 	}
 
-	public static void initAppProperties(HashMap<String, String> initProperties)
-	{
-		properties = initProperties;
-	}
-
 	public final void notifyDestroyed()
 	{ 
 		System.out.println("MIDlet sent Destroyed Notification");
@@ -37,7 +37,7 @@ public class RecordStore
 
 	private String appname;
 
-	private static String rmsPath;
+	private String rmsPath;
 
 	private String rmsFile;
 
@@ -70,8 +70,8 @@ public class RecordStore
 
 		appname = Mobile.getPlatform().loader.suitename;
 
-		rmsPath = "rms/"+appname;
-		rmsFile = "rms/"+appname+"/"+recordStoreName;
+		rmsPath = storePath();
+		rmsFile = rmsPath+"/"+recordStoreName;
 
 		try
 		{
@@ -247,7 +247,7 @@ public class RecordStore
 	{
 		try
 		{
-			File fstore = new File("rms/"+Mobile.getPlatform().loader.suitename+"/"+recordStoreName);
+			File fstore = new File(storePath()+"/"+recordStoreName);
 			fstore.delete();
 		}
 		catch (Exception e)
@@ -345,18 +345,26 @@ public class RecordStore
 
 	public int getVersion() { return version; }
 
+	// stores for the running suite live under the platform's data path //
+	private static String storePath()
+	{
+		String suite = Mobile.getPlatform().loader.suitename;
+		String path = Mobile.getPlatform().dataPath+"rms/"+suite;
+		// saves from before dataPath was used stay in the working directory //
+		String legacy = "rms/"+suite;
+		if(!new File(path).isDirectory() && new File(legacy).isDirectory()) { return legacy; }
+		return path;
+	}
+
 	public static String[] listRecordStores()
 	{
 		//System.out.println("List Record Stores");
-		if(rmsPath==null)
+		String rmsPath = storePath();
+		try
 		{
-			rmsPath = "rms/"+Mobile.getPlatform().loader.name;
-			try
-			{
-				Files.createDirectories(Paths.get(rmsPath));
-			}
-			catch (Exception e) { }
+			Files.createDirectories(Paths.get(rmsPath));
 		}
+		catch (Exception e) { }
 		try
 		{
 			File folder = new File(rmsPath);
@@ -366,8 +374,7 @@ public class RecordStore
 
 			for(int i=0; i<files.length; i++)
 			{
-				//System.out.println((files[i].toString()).substring(rmsPath.length()+1));
-				out[i] = (files[i].toString()).substring(rmsPath.length()+1);
+				out[i] = files[i].getName();
 			}
 
 			return out;
@@ -22,6 +22,10 @@
 #include <signal.h>
 #include <sys/types.h>
 #include <sys/wait.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <fcntl.h>
+#include <time.h>
 #include "libretro.h"
 #include <file/file_path.h>
 #include <retro_miscellaneous.h>
@@ -30,6 +34,9 @@
 #define MaxWidth 800
 #define MaxHeight 800
 
+// pixel format for pipe frames: 0 RGB888, 1 XRGB8888, 2 RGB565 (see FrameEncoder.java)
+#define PipeFormat 1
+
 retro_environment_t Environ;
 retro_video_refresh_t Video;
 retro_audio_sample_t Audio;
@@ -72,7 +79,8 @@ unsigned int frameHeight = 800;
 unsigned int frameSize = 640000;
 unsigned int frameBufferSize = 1920000;
 unsigned int frame[640000];
-unsigned char frameBuffer[1920000];
+unsigned char frameBuffer[2560000];
+int frameFormat = 0;
 unsigned char frameHeader[5];
 
 bool frameRequested = false;
@@ -80,6 +88,19 @@ int framesDropped = 0;
 
 unsigned char javaRequestFrame[5] = { 0xF, 0, 0, 0, 0 };
 
+// shared memory frames, see SharedFrameBuffer.java
+char sharedPath[64];
+unsigned char *shared = NULL;
+size_t sharedSize = 0;
+unsigned int sharedSequence = 0;
+
+void sendInput(unsigned char *event);
+bool sharedOpen(void);
+unsigned int readInt(unsigned char *p);
+unsigned int readPixel(unsigned char *p);
+bool readFully(unsigned char *buffer, int length);
+void copyRows(unsigned char *src, int first, int count, int srcWidth, int bpp, int r);
+
 // mouse cursor image
 unsigned int joymouseImage[374] =
 {
@@ -112,6 +133,10 @@ void quit(int state)
 	{
 		kill(javaProcess, SIGKILL);
 	}
+	if(sharedPath[0]!=0)
+	{
+		unlink(sharedPath);
+	}
 	exit(state);
 }
 
@@ -119,7 +144,7 @@ static void Keyboard(bool down, unsigned keycode, uint32_t character, uint16_t k
 {
 	unsigned char event[5] = {down, (keycode>>24)&0xFF, (keycode>>16)&0xFF, (keycode>>8)&0xFF, keycode&0xFF };
 
-	write(pWrite[1], event, 5);
+	sendInput(event);
 }
 
 void retro_init(void)
@@ -180,6 +205,21 @@ bool retro_load_game(const struct retro_game_info *info)
 	write(pWrite[1], savepath, len-9);
 	write(pWrite[1], "freej2me/", 9);
 
+	// Ask for frames through shared memory, java falls back to the pipe if it can't //
+	snprintf(sharedPath, sizeof(sharedPath), "/dev/shm/freej2me-%d.fb", (int)getpid());
+	len = strlen(sharedPath);
+	unsigned char sharedevent[5] = { 0xC, (len>>24)&0xFF, (len>>16)&0xFF, (len>>8)&0xFF, len&0xFF };
+	write(pWrite[1], sharedevent, 5);
+	write(pWrite[1], sharedPath, len);
+
+	// Pixel format for frames that still come over the pipe //
+	unsigned char formatevent[5] = { 0xD, 0, 0, 0, PipeFormat };
+	write(pWrite[1], formatevent, 5);
+
+	// Only send rows that changed //
+	unsigned char rowsevent[5] = { 0xE, 0, 0, 0, 1 };
+	write(pWrite[1], rowsevent, 5);
+
 	// Tell java app to load and run game //
 	len = strlen(info->path);
 
@@ -294,7 +334,7 @@ void retro_run(void)
 			joyevent[2] = (joymouseX) & 0xFF;
 			joyevent[3] = (joymouseY >> 8) & 0xFF;
 			joyevent[4] = (joymouseY) & 0xFF;
-			write(pWrite[1], joyevent, 5);
+			sendInput(joyevent);
 		}
 
 		// mouse - down/up
@@ -305,7 +345,7 @@ void retro_run(void)
 			joyevent[2] = (joymouseX) & 0xFF;
 			joyevent[3] = (joymouseY >> 8) & 0xFF;
 			joyevent[4] = (joymouseY) & 0xFF;
-			write(pWrite[1], joyevent, 5);
+			sendInput(joyevent);
 		}
 		mouseLpre = mouseL;
 
@@ -320,9 +360,9 @@ void retro_run(void)
 			joyevent[2] = (touchX) & 0xFF;
 			joyevent[3] = (touchY >> 8) & 0xFF;
 			joyevent[4] = (touchY) & 0xFF;
-			write(pWrite[1], joyevent, 5);
+			sendInput(joyevent);
 			joyevent[0] = 4; // mouse up
-			write(pWrite[1], joyevent, 5);
+			sendInput(joyevent);
 		}
 
 		for(i=0; i<14; i++)
@@ -339,7 +379,7 @@ void retro_run(void)
 					joyevent[2] = (joymouseX) & 0xFF;
 					joyevent[3] = (joymouseY >> 8) & 0xFF;
 					joyevent[4] = (joymouseY) & 0xFF;
-					write(pWrite[1], joyevent, 5);
+					sendInput(joyevent);
 				}
 				else
 				{
@@ -348,7 +388,7 @@ void retro_run(void)
 					joyevent[2] = 0;
 					joyevent[3] = 0;
 					joyevent[4] = i;
-					write(pWrite[1], joyevent, 5);
+					sendInput(joyevent);
 				}
 			}
 
@@ -356,20 +396,21 @@ void retro_run(void)
 			{
 				// start+L+R = ESC
 				unsigned char event[5] = { 1, 0,0,0,27 };
-				write(pWrite[1], event, 5);
+				sendInput(event);
 			}
 		}
 
 		// grab frame
 		// some jars are noisy
-		// wait for start of frame marker 0xFE
+		// wait for start of frame marker:
+		// 0xFE full frame, 0xFD shared memory notice, 0xFC no change, 0xFB changed rows
 		i=0;
-		while(t!=0xFE && isRunning(javaProcess))
+		while((t<0xFB || t>0xFE) && isRunning(javaProcess))
 		{
 			i++;
 			status = read(pRead[0], &t, 1);
 
-			if(i>255 && t!=0xFE)
+			if(i>255 && (t<0xFB || t>0xFE))
 			{
 				//drop frame
 				framesDropped++;
@@ -400,23 +441,51 @@ void retro_run(void)
 
 		status = read(pRead[0], frameHeader, 5);
 
+		unsigned int *pixels = NULL;
+		if(t==0xFD && status>0)
+		{
+			// shared memory notice: slot, sequence //
+			if(!sharedOpen())
+			{
+				printf("Can't open shared frame buffer!");
+				quit(EXIT_FAILURE);
+			}
+			sharedSequence = (frameHeader[1]<<24) | (frameHeader[2]<<16) | (frameHeader[3]<<8) | frameHeader[4];
+			unsigned char *slot = shared + 64 + frameHeader[0] * readInt(shared + 16);
+			if(readInt(slot)!=sharedSequence)
+			{
+				// slot already reused, show the last frame again //
+				Video(frame, frameWidth, frameHeight, sizeof(unsigned int) * frameWidth);
+				return;
+			}
+			w = readInt(slot + 4);
+			h = readInt(slot + 8);
+			frameHeader[0] = (w>>8)&0xFF;
+			frameHeader[1] = w&0xFF;
+			frameHeader[2] = (h>>8)&0xFF;
+			frameHeader[3] = h&0xFF;
+			frameHeader[4] = readInt(slot + 12);
+			pixels = (unsigned int *)(slot + 16);
+		}
+
 		if(status>0)
 		{
 			w = (frameHeader[0]<<8) | (frameHeader[1]);
 			h = (frameHeader[2]<<8) | (frameHeader[3]);
-			r = (frameHeader[4]);
+			r = (frameHeader[4]) & 0x0F;
+			frameFormat = (frameHeader[4]) >> 4;
 			if(r!=0)
 			{
-				t = w;
+				// t still holds the frame marker //
+				int swap = w;
 				w = h;
-				h = t;
+				h = swap;
 			}
 			if(frameWidth!=w || frameHeight!=h)
 			{
 				frameWidth = w;
 				frameHeight = h;
 				frameSize = w * h;
-				frameBufferSize = frameSize * 3;
 
 				// update geometry //
 				Geometry.base_width = w;
@@ -428,41 +497,91 @@ void retro_run(void)
 			}
 		}
 
-		// read frame
-		status = 0;
-		do
-		{
-			stat = read(pRead[0], readBuffer, readSize);
-			if (stat<=0) break;
-			for(i=0; i<stat; i++)
-			{
-				frameBuffer[status + i] = readBuffer[i];
-			}
-			status += stat;
-		} while(status > 0 && status < frameBufferSize);
-
-		if(status>0)
+		if(pixels!=NULL)
 		{
 			if(r==0)
 			{
-				// copy frameBuffer to frame
-				t = 0;
-				for(i=0; i<frameSize; i++)
-				{
-					frame[i] = (frameBuffer[t]<<16) | (frameBuffer[t+1]<<8) | (frameBuffer[t+2]);
-					t+=3;
-				}
+				memcpy(frame, pixels, frameSize * sizeof(unsigned int));
 			}
 			else
 			{
-				// copy frameBuffer to frame rotated 90 degrees anticlockwise
+				// rotate 90 degrees anticlockwise
 				t = 0;
 				for(j=0; j<frameWidth; j++)
 				{
 					for(i=frameHeight-1; i>=0; i--)
 					{
-						frame[(i*frameWidth)+j] = (frameBuffer[t]<<16) | (frameBuffer[t+1]<<8) | (frameBuffer[t+2]);
-						t+=3;
+						frame[(i*frameWidth)+j] = pixels[t++] & 0xFFFFFF;
+					}
+				}
+			}
+		}
+		else if(t==0xFC)
+		{
+			// frame didn't change, show the last one again //
+		}
+		else if(t==0xFB)
+		{
+			// runs of changed rows //
+			int srcWidth = (r==0) ? frameWidth : frameHeight;
+			int bpp = (frameFormat==1 ? 4 : frameFormat==2 ? 2 : 3);
+			unsigned char run[4];
+			if(!readFully(run, 4)) { quit(EXIT_FAILURE); }
+			int runs = (run[0]<<8) | run[1];
+			for(j=0; j<runs; j++)
+			{
+				if(!readFully(run, 4)) { quit(EXIT_FAILURE); }
+				int first = (run[0]<<8) | run[1];
+				int count = (run[2]<<8) | run[3];
+				if(!readFully(frameBuffer, count * srcWidth * bpp)) { quit(EXIT_FAILURE); }
+				copyRows(frameBuffer, first, count, srcWidth, bpp, r);
+			}
+		}
+		else
+		{
+			// read frame
+			frameBufferSize = frameSize * (frameFormat==1 ? 4 : frameFormat==2 ? 2 : 3);
+			status = 0;
+			do
+			{
+				stat = read(pRead[0], readBuffer, readSize);
+				if (stat<=0) break;
+				for(i=0; i<stat; i++)
+				{
+					frameBuffer[status + i] = readBuffer[i];
+				}
+				status += stat;
+			} while(status > 0 && status < frameBufferSize);
+
+			if(status>0)
+			{
+				int bpp = frameBufferSize / frameSize;
+				if(r==0 && frameFormat==1)
+				{
+					// XRGB8888 in native order, already the libretro layout
+					memcpy(frame, frameBuffer, frameBufferSize);
+				}
+				else if(r==0)
+				{
+					// copy frameBuffer to frame
+					t = 0;
+					for(i=0; i<frameSize; i++)
+					{
+						frame[i] = readPixel(frameBuffer + t);
+						t+=bpp;
+					}
+				}
+				else
+				{
+					// copy frameBuffer to frame rotated 90 degrees anticlockwise
+					t = 0;
+					for(j=0; j<frameWidth; j++)
+					{
+						for(i=frameHeight-1; i>=0; i--)
+						{
+							frame[(i*frameWidth)+j] = readPixel(frameBuffer + t);
+							t+=bpp;
+						}
 					}
 				}
 			}
@@ -597,6 +716,104 @@ pid_t javaOpen(char *cmd, char **params)
 	return pid;
 }
 
+void sendInput(unsigned char *event)
+{
+	// input packet followed by the time it was sent, see PacketReader.java
+	struct timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	unsigned long long ns = (unsigned long long)now.tv_sec * 1000000000ULL + now.tv_nsec;
+
+	unsigned char packet[13];
+	int i;
+	packet[0] = event[0] | 0x80;
+	for(i=1; i<5; i++) { packet[i] = event[i]; }
+	for(i=0; i<8; i++) { packet[5+i] = (ns >> (56 - 8*i)) & 0xFF; }
+	write(pWrite[1], packet, 13);
+}
+
+bool sharedOpen(void)
+{
+	if(shared!=NULL) { return true; }
+
+	int fd = open(sharedPath, O_RDONLY);
+	if(fd<0) { return false; }
+
+	struct stat st;
+	if(fstat(fd, &st)<0 || st.st_size<64)
+	{
+		close(fd);
+		return false;
+	}
+
+	void *map = mmap(NULL, st.st_size, PROT_READ, MAP_SHARED, fd, 0);
+	close(fd);
+	if(map==MAP_FAILED) { return false; }
+
+	shared = (unsigned char *)map;
+	sharedSize = st.st_size;
+	return true;
+}
+
+unsigned int readInt(unsigned char *p)
+{
+	// little-endian, matches SharedFrameBuffer.java
+	return p[0] | (p[1]<<8) | (p[2]<<16) | (p[3]<<24);
+}
+
+unsigned int readPixel(unsigned char *p)
+{
+	unsigned int c;
+	switch(frameFormat)
+	{
+		case 1:
+			return *((unsigned int *)p) & 0xFFFFFF;
+		case 2:
+			c = *((unsigned short *)p);
+			return ((c & 0xF800)<<8) | ((c & 0xE000)<<3) | ((c & 0x07E0)<<5) | ((c & 0x0600)>>1) | ((c & 0x001F)<<3) | ((c & 0x001C)>>2);
+	}
+	return (p[0]<<16) | (p[1]<<8) | p[2];
+}
+
+bool readFully(unsigned char *buffer, int length)
+{
+	int count = 0;
+	int status;
+	while(count<length)
+	{
+		status = read(pRead[0], buffer + count, length - count);
+		if(status<0 && errno == EAGAIN) { continue; }
+		if(status<=0) { return false; }
+		count += status;
+	}
+	return true;
+}
+
+void copyRows(unsigned char *src, int first, int count, int srcWidth, int bpp, int r)
+{
+	int x, y;
+	if(r==0 && frameFormat==1)
+	{
+		memcpy(frame + first * frameWidth, src, count * srcWidth * 4);
+		return;
+	}
+	for(y=first; y<first+count; y++)
+	{
+		for(x=0; x<srcWidth; x++)
+		{
+			if(r==0)
+			{
+				frame[(y*frameWidth)+x] = readPixel(src);
+			}
+			else
+			{
+				// rotated 90 degrees anticlockwise
+				frame[((frameHeight-1-x)*frameWidth)+y] = readPixel(src);
+			}
+			src += bpp;
+		}
+	}
+}
+
 bool isRunning(pid_t pid)
 {
 	int status;
@@ -22,6 +22,8 @@ import java.awt.Image;
 import java.awt.Canvas;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 import java.io.File;
 import java.util.Arrays;
@@ -41,6 +43,8 @@ public class Anbu
 
 	private SDL sdl;
 
+	private Presenter presenter;
+
 	private int lcdWidth;
 	private int lcdHeight;
 
@@ -65,22 +69,11 @@ public class Anbu
 		{
 			public void run()
 			{
-				try
+				// Hand the frame to the presenter, never wait on the SDL pipe //
+				if(presenter!=null)
 				{
-					// Send Frame to SDL interface
-					int[] data = Mobile.getPlatform().getLCD().getRGB(0, 0, lcdWidth, lcdHeight, null, 0, lcdWidth);
-					byte[] frame = new byte[data.length * 3];
-					int cb = 0;
-					for(int i = 0; i < data.length; i++)
-					{
-						frame[cb + 0] = (byte)(data[i] >> 16);
-						frame[cb + 1] = (byte)(data[i] >> 8);
-						frame[cb + 2] = (byte)(data[i]);
-						cb += 3;
-					}
-					sdl.frame.write(frame);
+					presenter.submit(Mobile.getPlatform());
 				}
-				catch (Exception e) { }
 			}
 		};
 
@@ -97,6 +90,9 @@ public class Anbu
 			sdl = new SDL();
 			sdl.start(args);
 
+			presenter = new Presenter();
+			presenter.start();
+
 			// Run jar
 			Mobile.getPlatform().runJar();
 		}
@@ -107,6 +103,80 @@ public class Anbu
 		}
 	}
 
+	/*
+		Sends frames to the SDL interface from its own thread. The game
+		thread copies the LCD into one of three preallocated buffers. If
+		the presenter hasn't picked up the previous frame yet, that frame
+		is dropped in favour of the new one.
+	*/
+	private class Presenter extends Thread
+	{
+		private int[][] buffers = new int[3][];
+		private int writing = 0;
+		private int pending = -1;
+		private int sending = -1;
+		private FrameEncoder encoder;
+
+		// LCD flip each buffer holds, only rows drawn since are copied //
+		private int[] flips = new int[]{-1, -1, -1};
+		private DirtyRegion damage = new DirtyRegion();
+
+		public Presenter()
+		{
+			super("Anbu Presenter");
+			setDaemon(true);
+			for(int i=0; i<3; i++) { buffers[i] = new int[lcdWidth*lcdHeight]; }
+			encoder = new FrameEncoder(lcdWidth*lcdHeight);
+		}
+
+		public void submit(MobilePlatform platform)
+		{
+			damage.clear();
+			flips[writing] = platform.getDamage(flips[writing], damage);
+			BufferedImage lcd = platform.getLCD();
+			int[] data = ((DataBufferInt)lcd.getRaster().getDataBuffer()).getData();
+			int top = damage.getTop();
+			int bottom = Math.min(damage.getBottom(), lcdHeight);
+			if(top<bottom)
+			{
+				System.arraycopy(data, top*lcdWidth, buffers[writing], top*lcdWidth, (bottom-top)*lcdWidth);
+			}
+
+			synchronized(this)
+			{
+				pending = writing;
+				for(int i=0; i<3; i++)
+				{
+					if(i!=pending && i!=sending) { writing = i; break; }
+				}
+				notify();
+			}
+		}
+
+		public void run()
+		{
+			try
+			{
+				while(true)
+				{
+					synchronized(this)
+					{
+						while(pending<0) { wait(); }
+						sending = pending;
+						pending = -1;
+					}
+
+					int length = encoder.encode(buffers[sending], 0, lcdWidth*lcdHeight, 0);
+					sdl.frame.write(encoder.getBuffer(), 0, length);
+					sdl.frame.flush();
+
+					synchronized(this) { sending = -1; }
+				}
+			}
+			catch (Exception e) { }
+		}
+	}
+
 	private static String getFormattedLocation(String loc)
 	{
 		if (loc.startsWith("file://") || loc.startsWith("http://"))
@@ -128,7 +198,7 @@ public class Anbu
 		private TimerTask keytask;
 
 		private Process proc;
-		private InputStream keys;
+		private PacketReader reader;
 		public OutputStream frame;
 
 		public void start(String args[])
@@ -138,8 +208,12 @@ public class Anbu
 				args[0] = "/usr/local/bin/sdl_interface";
 				proc = new ProcessBuilder(args).start();
 
-				keys = proc.getInputStream();
+				reader = new PacketReader(proc.getInputStream());
 				frame = proc.getOutputStream();
+				Runtime.getRuntime().addShutdownHook(new Thread()
+				{
+					public void run() { reader.printStats(); }
+				});
 
 				keytimer = new Timer();
 				keytask = new SDLKeyTimerTask();
@@ -161,38 +235,25 @@ public class Anbu
 
 		private class SDLKeyTimerTask extends TimerTask
 		{
-			private int bin;
-			private byte[] din = new byte[6];
-			private int count = 0;
 			private int code;
 
 			public void run()
 			{
 				try // to read keys
 				{
-					while(true)
+					while(reader.next())
 					{
-						bin = keys.read();
-						if(bin==-1) { return; }
-						// System.out.print(" "+bin);
-						din[count] = (byte)(bin & 0xFF);
-						count++;
-						if (count==5)
+						code = reader.code;
+						switch(reader.type)
 						{
-							count = 0;
-							code = (din[1]<<24) | (din[2]<<16) | (din[3]<<8) | din[4];
-							switch(din[0])
-							{
-								case 0: Mobile.getPlatform().keyReleased(getMobileKey(code)); break;
-								case 1: Mobile.getPlatform().keyPressed(getMobileKey(code)); break;
-								case 2: Mobile.getPlatform().keyReleased(getMobileKeyPad(code)); break;
-								case 3: Mobile.getPlatform().keyPressed(getMobileKeyPad(code)); break;
-								case 4: Mobile.getPlatform().keyReleased(getMobileKeyJoy(code)); break;
-								case 5: Mobile.getPlatform().keyPressed(getMobileKeyJoy(code)); break;
-
-							}
-							// System.out.println(" ("+code+") <- Key");
+							case 0: Mobile.getPlatform().keyReleased(getMobileKey(code)); break;
+							case 1: Mobile.getPlatform().keyPressed(getMobileKey(code)); break;
+							case 2: Mobile.getPlatform().keyReleased(getMobileKeyPad(code)); break;
+							case 3: Mobile.getPlatform().keyPressed(getMobileKeyPad(code)); break;
+							case 4: Mobile.getPlatform().keyReleased(getMobileKeyJoy(code)); break;
+							case 5: Mobile.getPlatform().keyPressed(getMobileKeyJoy(code)); break;
 						}
+						reader.dispatched();
 					}
 				}
 				catch (Exception e) { }
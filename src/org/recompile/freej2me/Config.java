@@ -111,6 +111,9 @@ public class Config
 				settings.put("phone", "Standard");
 				settings.put("rotate", "off");
 				settings.put("fps", "0");
+				settings.put("raster", "java2d");
+				settings.put("resourcecache", "4096");
+				settings.put("transformcache", "2048");
 				saveConfig();
 			}
 		}
@@ -150,6 +153,9 @@ public class Config
 			if(!settings.containsKey("phone")) { settings.put("phone", "Standard"); }
 			if(!settings.containsKey("rotate")) { settings.put("rotate", "off"); }
 			if(!settings.containsKey("fps")) { settings.put("fps", "0"); }
+			if(!settings.containsKey("raster")) { settings.put("raster", "java2d"); }
+			if(!settings.containsKey("resourcecache")) { settings.put("resourcecache", "4096"); }
+			if(!settings.containsKey("transformcache")) { settings.put("transformcache", "2048"); }
 
 			int w = Integer.parseInt(settings.get("width"));
 			int h = Integer.parseInt(settings.get("height"));
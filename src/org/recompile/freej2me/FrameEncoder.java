@@ -0,0 +1,201 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.freej2me;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import org.recompile.mobile.PixelKernels;
+
+/*
+
+	Frame Encoder
+
+	Converts ARGB LCD pixels into the pixel format the libretro core
+	asked for, into one preallocated buffer:
+
+	RGB888    3 bytes, red first (the original protocol)
+	XRGB8888  4 bytes, native byte order, a straight copy of the raster
+	RGB565    2 bytes, native byte order
+
+	The core and java always run on the same machine, so native order
+	lets the core copy pixels without swizzling.
+
+	encodeRows() only encodes the rows that changed since the previous
+	call, as runs of rows. Callers that know which rows were drawn can
+	pass them, rows outside that range are not compared:
+
+	  2 bytes run count, 2 bytes padding
+	  per run: 2 bytes first row, 2 bytes row count, then the pixels
+
+	Everything is big-endian apart from the pixels, the padding keeps
+	XRGB8888 pixels 4-byte aligned.
+
+*/
+
+public class FrameEncoder
+{
+	public static final int RGB888 = 0;
+	public static final int XRGB8888 = 1;
+	public static final int RGB565 = 2;
+
+	private static final boolean LITTLE = ByteOrder.nativeOrder()==ByteOrder.LITTLE_ENDIAN;
+
+	private PixelKernels kernels = PixelKernels.get();
+
+	private int format = RGB888;
+
+	private byte[] buffer;
+	private ByteBuffer bytes;
+	private IntBuffer ints;
+
+	// Last frame encoded by encodeRows //
+	private int[] last;
+	private int lastWidth = -1;
+	private int lastHeight = -1;
+
+	public FrameEncoder(int maxPixels)
+	{
+		last = new int[maxPixels];
+		buffer = new byte[maxPixels*4 + 4*maxPixels/16 + 4];
+		bytes = ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+		ints = bytes.asIntBuffer();
+	}
+
+	public static int bytesPerPixel(int format)
+	{
+		switch(format)
+		{
+			case XRGB8888: return 4;
+			case RGB565: return 2;
+		}
+		return 3;
+	}
+
+	public boolean setFormat(int value)
+	{
+		if(value<RGB888 || value>RGB565) { return false; }
+		format = value;
+		reset();
+		return true;
+	}
+
+	/*
+		Forgets the previous frame, the next encodeRows sends every row.
+	*/
+	public void reset()
+	{
+		lastWidth = -1;
+		lastHeight = -1;
+	}
+
+	public int getFormat() { return format; }
+
+	public byte[] getBuffer() { return buffer; }
+
+	/*
+		Encodes count pixels from data[offset] to the buffer at byte
+		position pos. Returns the position after the last byte written.
+	*/
+	public int encode(int[] data, int offset, int count, int pos)
+	{
+		int end = offset+count;
+		switch(format)
+		{
+			case XRGB8888:
+				if((pos&3)==0)
+				{
+					ints.position(pos>>2);
+					ints.put(data, offset, count);
+					return pos + count*4;
+				}
+				for(int i=offset; i<end; i++)
+				{
+					bytes.putInt(pos, data[i]);
+					pos+=4;
+				}
+				return pos;
+
+			case RGB565:
+				kernels.packRGB565(data, offset, buffer, pos, count, LITTLE);
+				return pos + count*2;
+		}
+
+		kernels.packRGB888(data, offset, buffer, pos, count);
+		return pos + count*3;
+	}
+
+	/*
+		Encodes the rows that differ from the previous frame, see above.
+		Returns the packet length, or 0 if nothing changed.
+	*/
+	public int encodeRows(int[] data, int width, int height)
+	{
+		return encodeRows(data, width, height, 0, height);
+	}
+
+	public int encodeRows(int[] data, int width, int height, int top, int bottom)
+	{
+		boolean full = width!=lastWidth || height!=lastHeight;
+		lastWidth = width;
+		lastHeight = height;
+		if(full)
+		{
+			top = 0;
+			bottom = height;
+		}
+
+		int runs = 0;
+		int pos = 4;
+		int y = Math.max(0, top);
+		height = Math.min(height, bottom);
+		while(y<height)
+		{
+			if(!full && rowEquals(data, y, width)) { y++; continue; }
+
+			int first = y;
+			while(y<height && (full || !rowEquals(data, y, width))) { y++; }
+			int count = y-first;
+
+			buffer[pos]   = (byte)(first>>8);
+			buffer[pos+1] = (byte)first;
+			buffer[pos+2] = (byte)(count>>8);
+			buffer[pos+3] = (byte)count;
+			pos = encode(data, first*width, count*width, pos+4);
+			System.arraycopy(data, first*width, last, first*width, count*width);
+			runs++;
+		}
+		if(runs==0) { return 0; }
+
+		buffer[0] = (byte)(runs>>8);
+		buffer[1] = (byte)runs;
+		buffer[2] = 0;
+		buffer[3] = 0;
+		return pos;
+	}
+
+	private boolean rowEquals(int[] data, int y, int width)
+	{
+		int end = (y+1)*width;
+		for(int i=y*width; i<end; i++)
+		{
+			if(data[i]!=last[i]) { return false; }
+		}
+		return true;
+	}
+}
@@ -25,6 +25,8 @@ import org.recompile.mobile.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.BufferStrategy;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.FilenameFilter;
 import javax.imageio.ImageIO;
@@ -43,6 +45,8 @@ public class FreeJ2ME
 
 	private LCD lcd;
 
+	private Presenter presenter;
+
 	private int xborder;
 	private int yborder;
 
@@ -103,11 +107,20 @@ public class FreeJ2ME
 		config = new Config();
 		config.onChange = new Runnable() { public void run() { settingsChanged(); } };
 
+		presenter = new Presenter();
+
 		Mobile.getPlatform().setPainter(new Runnable()
 		{
 			public void run()
 			{
-				lcd.paint(lcd.getGraphics());
+				if(config.isRunning)
+				{
+					presenter.submit(config.getLCD(), false);
+				}
+				else
+				{
+					presenter.submit(Mobile.getPlatform(), limitFPS>0);
+				}
 			}
 		});
 
@@ -199,6 +212,8 @@ public class FreeJ2ME
 		resize();
 		main.setSize(lcdWidth*scaleFactor+xborder, lcdHeight*scaleFactor+yborder);
 
+		presenter.start();
+
 		if(args.length<1)
 		{
 			FileDialog t = new FileDialog(main, "Open JAR File", FileDialog.LOAD);
@@ -234,19 +249,26 @@ public class FreeJ2ME
 		if(limitFPS>0) { limitFPS = 1000 / limitFPS; }
 
 		String sound = config.settings.get("sound");
-		Mobile.sound = false;
-		if(sound.equals("on")) { Mobile.sound = true; }
+		Mobile.getPlatform().sound = false;
+		if(sound.equals("on")) { Mobile.getPlatform().sound = true; }
+
+		String raster = config.settings.get("raster");
+		Mobile.getPlatform().softwareRaster = raster.equals("software");
+
+		// KB //
+		Mobile.getPlatform().setResourceCacheSize(Long.parseLong(config.settings.get("resourcecache"))*1024);
+		Mobile.getPlatform().setTransformCacheSize(Long.parseLong(config.settings.get("transformcache"))*1024);
 
 		String phone = config.settings.get("phone");
 		useNokiaControls = false;
 		useSiemensControls = false;
 		useMotorolaControls = false;
-		Mobile.nokia = false;
-		Mobile.siemens = false;
-		Mobile.motorola = false;
-		if(phone.equals("Nokia")) { Mobile.nokia = true; useNokiaControls = true; }
-		if(phone.equals("Siemens")) { Mobile.siemens = true; useSiemensControls = true; }
-		if(phone.equals("Motorola")) { Mobile.motorola = true; useMotorolaControls = true; }
+		Mobile.getPlatform().nokia = false;
+		Mobile.getPlatform().siemens = false;
+		Mobile.getPlatform().motorola = false;
+		if(phone.equals("Nokia")) { Mobile.getPlatform().nokia = true; useNokiaControls = true; }
+		if(phone.equals("Siemens")) { Mobile.getPlatform().siemens = true; useSiemensControls = true; }
+		if(phone.equals("Motorola")) { Mobile.getPlatform().motorola = true; useMotorolaControls = true; }
 
 		if(lcdWidth != w || lcdHeight != h)
 		{
@@ -393,26 +415,182 @@ public class FreeJ2ME
 		}
 
 		public void paint(Graphics g)
+		{
+			// Window exposed, draw the last frame again //
+			presenter.redraw();
+		}
+
+		public void update(Graphics g)
+		{
+			paint(g);
+		}
+	}
+
+	/*
+		Draws frames to the LCD canvas through a BufferStrategy from its
+		own thread, paced to the fps setting or 60Hz. The painter copies
+		the LCD into a swap buffer and returns. With an fps limit it
+		first waits for the presenter to take the previous frame, which
+		throttles the game to the refresh rate.
+	*/
+	private class Presenter extends Thread
+	{
+		private BufferedImage back;  // written by the painter
+		private BufferedImage ready; // newest complete frame
+		private BufferedImage shown; // drawn by the presenter
+		private boolean fresh = false;
+		private boolean expose = false;
+		private final Object painting = new Object();
+
+		// LCD flip each frame holds, -1 for the config menu //
+		private int backFlip = -1;
+		private int readyFlip = -1;
+		private int shownFlip = -1;
+		private DirtyRegion damage = new DirtyRegion();
+
+		public Presenter()
+		{
+			super("AWT Presenter");
+			setDaemon(true);
+		}
+
+		public void submit(BufferedImage frame, boolean throttle)
+		{
+			// The MIDlet and the config menu may both paint //
+			synchronized(painting)
+			{
+				if(!waitShown(throttle)) { return; }
+				copy(frame, 0, frame.getHeight(), -1);
+			}
+		}
+
+		/*
+			Copies only the rows the platform reports as drawn since the
+			back frame was last filled.
+		*/
+		public void submit(MobilePlatform platform, boolean throttle)
+		{
+			synchronized(painting)
+			{
+				if(!waitShown(throttle)) { return; }
+				damage.clear();
+				int flip = platform.getDamage(backFlip, damage);
+				copy(platform.getLCD(), damage.getTop(), damage.getBottom(), flip);
+			}
+		}
+
+		private boolean waitShown(boolean throttle)
 		{
 			try
 			{
-				Graphics2D cgc = (Graphics2D)this.getGraphics();
-				if (config.isRunning)
+				synchronized(this)
 				{
-					g.drawImage(config.getLCD(), cx, cy, cw, ch, null);
+					while(throttle && fresh) { wait(); }
 				}
-				else
+			}
+			catch (InterruptedException e) { return false; }
+			return true;
+		}
+
+		private void copy(BufferedImage frame, int top, int bottom, int flip)
+		{
+			int width = frame.getWidth();
+			int height = frame.getHeight();
+			if(back==null || back.getWidth()!=width || back.getHeight()!=height)
+			{
+				back = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+				top = 0;
+				bottom = height;
+			}
+			bottom = Math.min(bottom, height);
+			if(top<bottom)
+			{
+				int[] source = ((DataBufferInt)frame.getRaster().getDataBuffer()).getData();
+				int[] target = ((DataBufferInt)back.getRaster().getDataBuffer()).getData();
+				System.arraycopy(source, top*width, target, top*width, (bottom-top)*width);
+			}
+
+			synchronized(this)
+			{
+				BufferedImage swap = ready;
+				ready = back;
+				back = swap;
+				backFlip = readyFlip;
+				readyFlip = flip;
+				fresh = true;
+				notifyAll();
+			}
+		}
+
+		public synchronized void redraw()
+		{
+			expose = true;
+			notifyAll();
+		}
+
+		public void run()
+		{
+			BufferStrategy strategy = null;
+			long next = System.nanoTime();
+			while(true)
+			{
+				try
 				{
-					g.drawImage(Mobile.getPlatform().getLCD(), cx, cy, cw, ch, null);
-					if(limitFPS>0)
+					synchronized(this)
 					{
-						Thread.sleep(limitFPS);
+						while(!fresh && !expose) { wait(); }
+						if(fresh)
+						{
+							BufferedImage swap = shown;
+							shown = ready;
+							ready = swap;
+							int flip = shownFlip;
+							shownFlip = readyFlip;
+							readyFlip = flip;
+							fresh = false;
+							notifyAll();
+						}
+						expose = false;
+					}
+
+					if(strategy==null)
+					{
+						lcd.createBufferStrategy(2);
+						strategy = lcd.getBufferStrategy();
+					}
+
+					do
+					{
+						do
+						{
+							Graphics g = strategy.getDrawGraphics();
+							g.setColor(main.getBackground());
+							g.fillRect(0, 0, lcd.getWidth(), lcd.getHeight());
+							if(shown!=null) { g.drawImage(shown, lcd.cx, lcd.cy, lcd.cw, lcd.ch, null); }
+							g.dispose();
+						} while(strategy.contentsRestored());
+						strategy.show();
+					} while(strategy.contentsLost());
+					Toolkit.getDefaultToolkit().sync();
+
+					// Pace to the refresh rate //
+					long period = (limitFPS>0 ? limitFPS : 1000/60) * 1000000L;
+					next += period;
+					long now = System.nanoTime();
+					if(next>now)
+					{
+						Thread.sleep((next-now)/1000000, (int)((next-now)%1000000));
+					}
+					else
+					{
+						next = now;
 					}
 				}
-			}
-			catch (Exception e)
-			{
-				System.out.println(e.getMessage());
+				catch (InterruptedException e) { return; }
+				catch (Exception e)
+				{
+					System.out.println(e.getMessage());
+				}
 			}
 		}
 	}
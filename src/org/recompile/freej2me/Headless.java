@@ -0,0 +1,526 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.freej2me;
+
+/*
+	FreeJ2ME - Headless
+
+	Runs a jar offscreen for benchmarks and smoke tests:
+
+	Headless game.jar [width height] [options]
+
+	-frames N         exit after N frames
+	-seconds N        exit after N seconds
+	-speed X          virtual clock speed, 0 is unthrottled
+	-step MS          step mode, advance the clock MS whenever the MIDlet waits on it
+	-input FILE       scripted input
+	-record FILE      record input to a binary log
+	-replay FILE      replay a binary input log
+	-dump LIST        frames to save, e.g. 1,50,100 or every:30
+	-format png|raw   dump format (raw is big-endian ARGB ints)
+	-out DIR          dump directory
+	-timings FILE     write per-frame timings as CSV
+	-phone NAME       Standard, Nokia, Siemens or Motorola
+	-data DIR         data path for caches and screenshots
+	-preinstrument    instrument all classes at load time
+	-raster NAME      java2d or software
+	-resourcecache KB resource cache budget, 0 disables it
+	-transformcache KB transformed sprite cache budget, 0 disables it
+	-allocations      count the bytes allocated per frame by the thread that presents frames
+
+	Input file lines are "<frame> <command> <args>", lines starting with # are ignored:
+
+	10 press 5        key codes are numbers or 0-9 * # UP DOWN LEFT RIGHT FIRE SOFT1 SOFT2 SOFT3
+	12 release 5
+	40 pointerpress 100 120
+	41 pointerdrag 110 120
+	42 pointerrelease 110 120
+*/
+
+import org.recompile.mobile.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.io.File;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileOutputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.PrintWriter;
+
+import java.lang.management.ManagementFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+
+import javax.imageio.ImageIO;
+
+public class Headless
+{
+	public static void main(String args[])
+	{
+		System.setProperty("java.awt.headless", "true");
+		Headless app = new Headless(args);
+	}
+
+	private int lcdWidth = 240;
+	private int lcdHeight = 320;
+
+	private int maxFrames = 0;
+	private int maxSeconds = 0;
+	private long stepMillis = 0;
+
+	private HashSet<Integer> dumpFrames = new HashSet<Integer>();
+	private int dumpEvery = 0;
+	private String dumpFormat = "png";
+	private String outPath = "frames";
+	private String timingsFile = null;
+
+	private ArrayList<int[]> input = new ArrayList<int[]>();
+	private int nextInput = 0;
+
+	private int frame = 0;
+	private long startTime;
+	private long lastFrameTime;
+	private long[] frameTimes = new long[1024];
+	private com.sun.management.ThreadMXBean threads = null;
+	private long[] frameBytes = new long[1024];
+	private long lastThread = -1;
+	private long lastAllocated;
+	private long countOverhead;
+	private boolean injecting = false;
+	private boolean finished = false;
+
+	private static final int PRESS = 0;
+	private static final int RELEASE = 1;
+	private static final int POINTER_PRESS = 2;
+	private static final int POINTER_RELEASE = 3;
+	private static final int POINTER_DRAG = 4;
+
+	public Headless(String args[])
+	{
+		if(args.length<1)
+		{
+			System.out.println("Usage: Headless game.jar [width height] [options]");
+			System.exit(1);
+		}
+
+		String jarfile = args[0];
+		int i = 1;
+		if(args.length>=3 && !args[1].startsWith("-"))
+		{
+			lcdWidth = Integer.parseInt(args[1]);
+			lcdHeight = Integer.parseInt(args[2]);
+			i = 3;
+		}
+
+		Mobile.setPlatform(new MobilePlatform(lcdWidth, lcdHeight));
+		final MobilePlatform platform = Mobile.getPlatform();
+
+		try
+		{
+			for(; i<args.length; i++)
+			{
+				String arg = args[i];
+				if(arg.equals("-frames")) { maxFrames = Integer.parseInt(args[++i]); }
+				else if(arg.equals("-seconds")) { maxSeconds = Integer.parseInt(args[++i]); }
+				else if(arg.equals("-speed")) { platform.clock.setSpeed(Double.parseDouble(args[++i])); }
+				else if(arg.equals("-step")) { stepMillis = Long.parseLong(args[++i]); platform.clock.setStepping(true); }
+				else if(arg.equals("-input")) { loadInput(args[++i]); }
+				else if(arg.equals("-record")) { platform.startRecording(args[++i]); }
+				else if(arg.equals("-replay")) { platform.startReplay(args[++i]); }
+				else if(arg.equals("-dump")) { parseDump(args[++i]); }
+				else if(arg.equals("-format")) { dumpFormat = args[++i]; }
+				else if(arg.equals("-out")) { outPath = args[++i]; }
+				else if(arg.equals("-timings")) { timingsFile = args[++i]; }
+				else if(arg.equals("-phone")) { setPhone(platform, args[++i]); }
+				else if(arg.equals("-data")) { platform.dataPath = dataDir(args[++i]); }
+				else if(arg.equals("-preinstrument")) { platform.preInstrument = true; }
+				else if(arg.equals("-raster")) { platform.softwareRaster = args[++i].equals("software"); }
+				else if(arg.equals("-resourcecache")) { platform.resourceCacheSize = Long.parseLong(args[++i])*1024; }
+				else if(arg.equals("-transformcache")) { platform.transformCacheSize = Long.parseLong(args[++i])*1024; }
+				else if(arg.equals("-allocations")) { countAllocations(); }
+				else
+				{
+					System.out.println("Unknown option "+arg);
+					System.exit(1);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Bad arguments: "+e.getMessage());
+			System.exit(1);
+		}
+
+		if(!dumpFrames.isEmpty() || dumpEvery>0)
+		{
+			try
+			{
+				Files.createDirectories(Paths.get(outPath));
+			}
+			catch (Exception e)
+			{
+				System.out.println("Problem Creating Output Path "+outPath);
+				System.out.println(e.getMessage());
+			}
+		}
+
+		platform.setPainter(new Runnable()
+		{
+			public void run()
+			{
+				onFrame(platform);
+			}
+		});
+
+		if(!jarfile.contains("://"))
+		{
+			jarfile = new File(jarfile).toURI().toString();
+		}
+
+		startTime = System.nanoTime();
+		lastFrameTime = startTime;
+
+		if(maxSeconds>0)
+		{
+			Thread watchdog = new Thread()
+			{
+				public void run()
+				{
+					try { Thread.sleep(maxSeconds*1000L); } catch (Exception e) { }
+					finish();
+				}
+			};
+			watchdog.setDaemon(true);
+			watchdog.start();
+		}
+
+		if(stepMillis>0)
+		{
+			Thread stepper = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						while(true)
+						{
+							platform.clock.awaitSleeper();
+							platform.clock.step(stepMillis);
+						}
+					}
+					catch (Exception e) { }
+				}
+			};
+			stepper.setDaemon(true);
+			stepper.start();
+		}
+
+		if(platform.loadJar(jarfile))
+		{
+			platform.runJar();
+		}
+		else
+		{
+			System.out.println("Couldn't load jar...");
+			System.exit(1);
+		}
+	}
+
+	private void onFrame(MobilePlatform platform)
+	{
+		long now = System.nanoTime();
+		synchronized(this)
+		{
+			if(finished) { return; }
+			if(frame==frameTimes.length)
+			{
+				frameTimes = Arrays.copyOf(frameTimes, frame*2);
+				frameBytes = Arrays.copyOf(frameBytes, frame*2);
+			}
+			frameTimes[frame] = now - lastFrameTime;
+			lastFrameTime = now;
+			if(threads!=null) { frameBytes[frame] = allocatedSinceLastFrame(); }
+			frame++;
+		}
+
+		if((!dumpFrames.isEmpty() && dumpFrames.contains(frame)) || (dumpEvery>0 && frame%dumpEvery==0))
+		{
+			dumpFrame(platform.getLCD());
+		}
+
+		// Repaints triggered by injected input count as frames, but don't inject again //
+		if(!injecting)
+		{
+			injecting = true;
+			while(nextInput<input.size() && input.get(nextInput)[0]<=frame)
+			{
+				int[] event = input.get(nextInput++);
+				try
+				{
+					switch(event[1])
+					{
+						case PRESS: platform.keyPressed(event[2]); break;
+						case RELEASE: platform.keyReleased(event[2]); break;
+						case POINTER_PRESS: platform.pointerPressed(event[2], event[3]); break;
+						case POINTER_RELEASE: platform.pointerReleased(event[2], event[3]); break;
+						case POINTER_DRAG: platform.pointerDragged(event[2], event[3]); break;
+					}
+				}
+				catch (Exception e)
+				{
+					System.out.println("Input at frame "+frame+" failed: "+e.getMessage());
+				}
+			}
+			injecting = false;
+		}
+
+		if(maxFrames>0 && frame>=maxFrames)
+		{
+			finish();
+		}
+	}
+
+	private void finish()
+	{
+		int frames;
+		long[] times;
+		synchronized(this)
+		{
+			if(finished) { return; }
+			finished = true;
+			frames = frame;
+			times = Arrays.copyOf(frameTimes, frame);
+		}
+
+		double seconds = (System.nanoTime()-startTime) / 1e9;
+		System.out.println("Headless: "+frames+" frames in "+String.format("%.3f", seconds)+"s, "+String.format("%.2f", frames/seconds)+" fps");
+
+		if(frames>0)
+		{
+			long[] sorted = Arrays.copyOf(times, frames);
+			Arrays.sort(sorted);
+			long total = 0;
+			for(int i=0; i<frames; i++) { total += sorted[i]; }
+			System.out.println("Frame ms: min "+ms(sorted[0])+" avg "+ms(total/frames)+
+				" p95 "+ms(sorted[(int)(frames*0.95)])+" max "+ms(sorted[frames-1]));
+		}
+
+		if(threads!=null && frames>0)
+		{
+			// The first frame has no previous one to count from //
+			long[] sorted = Arrays.copyOf(frameBytes, frames);
+			sorted[0] = 0;
+			Arrays.sort(sorted);
+			long total = 0;
+			int none = 0;
+			for(int i=0; i<frames; i++)
+			{
+				total += Math.max(0, sorted[i]);
+				if(sorted[i]==0) { none++; }
+			}
+			System.out.println("Frame bytes: median "+sorted[frames/2]+" avg "+(total/frames)+
+				" p95 "+sorted[(int)(frames*0.95)]+" max "+sorted[frames-1]+", "+none+" frames allocated nothing");
+		}
+
+		if(timingsFile!=null)
+		{
+			try
+			{
+				PrintWriter writer = new PrintWriter(timingsFile);
+				writer.println(threads!=null ? "frame,ms,bytes" : "frame,ms");
+				for(int i=0; i<frames; i++)
+				{
+					writer.println((i+1)+","+ms(times[i])+(threads!=null ? ","+frameBytes[i] : ""));
+				}
+				writer.close();
+			}
+			catch (Exception e)
+			{
+				System.out.println("Problem Writing Timings "+timingsFile);
+				System.out.println(e.getMessage());
+			}
+		}
+
+		System.exit(0);
+	}
+
+	private void countAllocations()
+	{
+		try
+		{
+			threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+			threads.setThreadAllocatedMemoryEnabled(true);
+			// Reading the counter can allocate too //
+			long id = Thread.currentThread().getId();
+			long first = threads.getThreadAllocatedBytes(id);
+			countOverhead = threads.getThreadAllocatedBytes(id) - first;
+		}
+		catch (Throwable e)
+		{
+			System.out.println("Allocation counting isn't supported by this JVM");
+			threads = null;
+		}
+	}
+
+	/*
+		Bytes allocated by this thread since the last frame it presented,
+		or -1 if the last frame came from another thread.
+	*/
+	private long allocatedSinceLastFrame()
+	{
+		long id = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(id);
+		long bytes = id==lastThread ? Math.max(0, allocated-lastAllocated-countOverhead) : -1;
+		lastThread = id;
+		lastAllocated = allocated;
+		return bytes;
+	}
+
+	private static String ms(long nanos)
+	{
+		return String.format("%.3f", nanos/1e6);
+	}
+
+	private void dumpFrame(BufferedImage lcd)
+	{
+		String name = outPath + "/frame_" + String.format("%06d", frame);
+		try
+		{
+			if(dumpFormat.equals("raw"))
+			{
+				int[] data = ((DataBufferInt)lcd.getRaster().getDataBuffer()).getData();
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(name+".raw")));
+				for(int i=0; i<data.length; i++)
+				{
+					out.writeInt(data[i]);
+				}
+				out.close();
+			}
+			else
+			{
+				ImageIO.write(lcd, "png", new File(name+".png"));
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Problem Saving Frame "+name);
+			System.out.println(e.getMessage());
+		}
+	}
+
+	private void parseDump(String list)
+	{
+		if(list.startsWith("every:"))
+		{
+			dumpEvery = Integer.parseInt(list.substring(6));
+			return;
+		}
+		for(String part : list.split(","))
+		{
+			dumpFrames.add(Integer.parseInt(part.trim()));
+		}
+	}
+
+	private void loadInput(String path) throws Exception
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		String line;
+		int lineno = 0;
+		while((line = reader.readLine())!=null)
+		{
+			lineno++;
+			line = line.trim();
+			if(line.length()==0 || line.startsWith("#")) { continue; }
+
+			String[] parts = line.split("\\s+");
+			int[] event = new int[4];
+			event[0] = Integer.parseInt(parts[0]);
+			String command = parts[1].toLowerCase();
+			if(command.equals("press")) { event[1] = PRESS; event[2] = getMobileKey(parts[2]); }
+			else if(command.equals("release")) { event[1] = RELEASE; event[2] = getMobileKey(parts[2]); }
+			else
+			{
+				if(command.equals("pointerpress")) { event[1] = POINTER_PRESS; }
+				else if(command.equals("pointerrelease")) { event[1] = POINTER_RELEASE; }
+				else if(command.equals("pointerdrag")) { event[1] = POINTER_DRAG; }
+				else { throw new Exception("line "+lineno+": unknown command "+parts[1]); }
+				event[2] = Integer.parseInt(parts[2]);
+				event[3] = Integer.parseInt(parts[3]);
+			}
+			input.add(event);
+		}
+		reader.close();
+
+		// Stable sort keeps file order for events on the same frame //
+		Collections.sort(input, new Comparator<int[]>()
+		{
+			public int compare(int[] a, int[] b) { return Integer.compare(a[0], b[0]); }
+		});
+	}
+
+	private int getMobileKey(String key)
+	{
+		switch(key.toUpperCase())
+		{
+			case "0": return Mobile.KEY_NUM0;
+			case "1": return Mobile.KEY_NUM1;
+			case "2": return Mobile.KEY_NUM2;
+			case "3": return Mobile.KEY_NUM3;
+			case "4": return Mobile.KEY_NUM4;
+			case "5": return Mobile.KEY_NUM5;
+			case "6": return Mobile.KEY_NUM6;
+			case "7": return Mobile.KEY_NUM7;
+			case "8": return Mobile.KEY_NUM8;
+			case "9": return Mobile.KEY_NUM9;
+			case "*": return Mobile.KEY_STAR;
+			case "#": return Mobile.KEY_POUND;
+			case "UP": return Mobile.NOKIA_UP;
+			case "DOWN": return Mobile.NOKIA_DOWN;
+			case "LEFT": return Mobile.NOKIA_LEFT;
+			case "RIGHT": return Mobile.NOKIA_RIGHT;
+			case "FIRE": return Mobile.NOKIA_SOFT3;
+			case "SOFT1": return Mobile.NOKIA_SOFT1;
+			case "SOFT2": return Mobile.NOKIA_SOFT2;
+			case "SOFT3": return Mobile.NOKIA_SOFT3;
+		}
+		return Integer.parseInt(key);
+	}
+
+	private void setPhone(MobilePlatform platform, String phone)
+	{
+		platform.nokia = phone.equals("Nokia");
+		platform.siemens = phone.equals("Siemens");
+		platform.motorola = phone.equals("Motorola");
+	}
+
+	// dataPath is used as a prefix, libretro sends it with the trailing slash //
+	private static String dataDir(String path)
+	{
+		if(path.endsWith("/") || path.endsWith(File.separator)) { return path; }
+		return path + File.separator;
+	}
+}
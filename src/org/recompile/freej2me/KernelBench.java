@@ -0,0 +1,171 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.freej2me;
+
+/*
+	FreeJ2ME - Kernel Bench
+
+	Times the pixel kernels PixelKernels.get() picked against the scalar
+	ones on random 240x320 frames, and checks they give the same output:
+
+	java --add-modules jdk.incubator.vector -cp build/freej2me-headless.jar org.recompile.freej2me.KernelBench [seconds per kernel]
+
+	Without --add-modules both columns are the scalar kernels.
+*/
+
+import org.recompile.mobile.PixelKernels;
+
+import com.nokia.mid.ui.DirectGraphics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class KernelBench
+{
+	private static final int WIDTH = 240;
+	private static final int HEIGHT = 320;
+	private static final int PIXELS = WIDTH*HEIGHT;
+
+	private static final int[] FORMATS = {
+		DirectGraphics.TYPE_USHORT_565_RGB, DirectGraphics.TYPE_USHORT_4444_ARGB,
+		DirectGraphics.TYPE_USHORT_1555_ARGB, DirectGraphics.TYPE_USHORT_444_RGB };
+
+	private PixelKernels scalar = new PixelKernels();
+	private PixelKernels picked = PixelKernels.get();
+	private double seconds = 1;
+	private boolean failed = false;
+
+	private int[] argb = new int[PIXELS];
+	private int[] translucent = new int[PIXELS];
+	private short[] shorts = new short[PIXELS];
+	private int[][] ints = { new int[PIXELS], new int[PIXELS] };
+	private short[][] shortsOut = { new short[PIXELS], new short[PIXELS] };
+	private byte[][] bytes = { new byte[PIXELS*3], new byte[PIXELS*3] };
+
+	public static void main(String args[])
+	{
+		System.setProperty("java.awt.headless", "true");
+		KernelBench bench = new KernelBench();
+		if(args.length>0) { bench.seconds = Double.parseDouble(args[0]); }
+		bench.run();
+		System.exit(bench.failed ? 1 : 0);
+	}
+
+	private void run()
+	{
+		Random random = new Random(1);
+		for(int i=0; i<PIXELS; i++)
+		{
+			argb[i] = random.nextInt();
+			shorts[i] = (short)random.nextInt();
+			// Mostly solid or clear, like sprites, with some real blending //
+			int alpha = random.nextInt(4)==0 ? random.nextInt(256) : (random.nextBoolean() ? 0xFF : 0);
+			translucent[i] = (alpha<<24) | (argb[i]&0xFFFFFF);
+		}
+
+		System.out.println("Kernels: " + picked.getName() + ", " + WIDTH + "x" + HEIGHT + " frames");
+		System.out.println(String.format("%-16s %12s %12s %8s", "kernel", "scalar Mpx/s", "picked Mpx/s", "speedup"));
+
+		for(final int format : FORMATS)
+		{
+			compare("toARGB " + format, new Kernel()
+			{
+				public void run(PixelKernels k, int out) { k.toARGB(shorts, 0, ints[out], 0, PIXELS, format); }
+				public boolean same() { return Arrays.equals(ints[0], ints[1]); }
+			});
+			compare("fromARGB " + format, new Kernel()
+			{
+				public void run(PixelKernels k, int out) { k.fromARGB(argb, 0, shortsOut[out], 0, PIXELS, format); }
+				public boolean same() { return Arrays.equals(shortsOut[0], shortsOut[1]); }
+			});
+		}
+		compare("packRGB888", new Kernel()
+		{
+			public void run(PixelKernels k, int out) { k.packRGB888(argb, 0, bytes[out], 0, PIXELS); }
+			public boolean same() { return Arrays.equals(bytes[0], bytes[1]); }
+		});
+		compare("packRGB565", new Kernel()
+		{
+			public void run(PixelKernels k, int out) { k.packRGB565(argb, 0, bytes[out], 0, PIXELS, true); }
+			public boolean same() { return Arrays.equals(bytes[0], bytes[1]); }
+		});
+		compare("blend any", new Kernel()
+		{
+			public void run(PixelKernels k, int out)
+			{
+				System.arraycopy(translucent, 0, ints[out], 0, PIXELS);
+				k.blend(argb, 0, ints[out], 0, PIXELS);
+			}
+			public boolean same() { return Arrays.equals(ints[0], ints[1]); }
+		});
+		compare("opaque", new Kernel()
+		{
+			public void run(PixelKernels k, int out) { k.opaque(argb, 0, ints[out], 0, PIXELS); }
+			public boolean same() { return Arrays.equals(ints[0], ints[1]); }
+		});
+		compare("masked", new Kernel()
+		{
+			public void run(PixelKernels k, int out) { k.masked(translucent, 0, ints[out], 0, PIXELS); }
+			public boolean same() { return Arrays.equals(ints[0], ints[1]); }
+		});
+		compare("blend", new Kernel()
+		{
+			// Onto a fresh opaque frame each run, like drawing to the screen //
+			public void run(PixelKernels k, int out)
+			{
+				k.opaque(argb, 0, ints[out], 0, PIXELS);
+				k.blend(translucent, 0, ints[out], 0, PIXELS);
+			}
+			public boolean same() { return Arrays.equals(ints[0], ints[1]); }
+		});
+	}
+
+	private void compare(String name, Kernel kernel)
+	{
+		kernel.run(scalar, 0);
+		kernel.run(picked, 1);
+		boolean same = kernel.same();
+		if(!same) { failed = true; }
+
+		double a = time(kernel, scalar, 0);
+		double b = time(kernel, picked, 1);
+		System.out.println(String.format("%-16s %12.1f %12.1f %7.2fx%s", name, a, b, b/a, same ? "" : "  MISMATCH"));
+	}
+
+	// Megapixels per second //
+	private double time(Kernel kernel, PixelKernels k, int out)
+	{
+		for(int i=0; i<50; i++) { kernel.run(k, out); } // warm up
+		long start = System.nanoTime();
+		long end = start + (long)(seconds*1000000000L);
+		long runs = 0;
+		long now;
+		do
+		{
+			kernel.run(k, out);
+			runs++;
+			now = System.nanoTime();
+		} while(now<end);
+		return runs*(double)PIXELS / ((now-start)/1000.0);
+	}
+
+	private interface Kernel
+	{
+		void run(PixelKernels k, int out);
+		boolean same();
+	}
+}
@@ -23,6 +23,7 @@ import java.awt.Canvas;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 import java.util.Arrays;
 import java.util.Timer;
@@ -38,10 +39,6 @@ public class Libretro
 	private int lcdWidth;
 	private int lcdHeight;
 
-	private Runnable painter;
-
-	private BufferedImage surface;
-	private Graphics2D gc;
 
 	private Config config;
 	private boolean useNokiaControls = false;
@@ -50,14 +47,25 @@ public class Libretro
 	private boolean rotateDisplay = false;
 	private int limitFPS = 0;
 
-	private byte[] frameBuffer = new byte[800*800*3];
+	private FrameEncoder encoder = new FrameEncoder(800*800);
+	private boolean sendRows = false;
 	private byte[] frameHeader = new byte[]{(byte)0xFE, 0, 0, 0, 0, 0};
 
+	private SharedFrameBuffer shared;
+	private byte[] frameNotice = new byte[]{(byte)0xFD, 0, 0, 0, 0, 0};
+
+	// LCD flip each shared slot and the rows encoder last got, -1 for unknown //
+	private int[] slotFlips = new int[]{-1, -1};
+	private int rowsFlip = -1;
+	private DirtyRegion damage = new DirtyRegion();
+
 	private int mousex;
 	private int mousey;
 
 	LibretroIO lio;
 
+	private PacketReader reader = new PacketReader(System.in);
+
 	public static void main(String args[])
 	{
 		Libretro app = new Libretro();
@@ -68,32 +76,20 @@ public class Libretro
 		lcdWidth = 240;
 		lcdHeight = 320;
 
-		surface = new BufferedImage(lcdWidth, lcdHeight, BufferedImage.TYPE_INT_ARGB); // libretro display
-		gc = (Graphics2D)surface.getGraphics();
-
 		Mobile.setPlatform(new MobilePlatform(lcdWidth, lcdHeight));
 
 		config = new Config();
 		config.onChange = new Runnable() { public void run() { settingsChanged(); } };
 
+		Runtime.getRuntime().addShutdownHook(new Thread()
+		{
+			public void run() { reader.printStats(); }
+		});
+
 		lio = new LibretroIO();
 
 		lio.start();
 
-		painter = new Runnable()
-		{
-			public void run()
-			{
-				try
-				{
-					gc.drawImage(Mobile.getPlatform().getLCD(), 0, 0, lcdWidth, lcdHeight, null);
-				}
-				catch (Exception e) { }
-			}
-		};
-
-		Mobile.getPlatform().setPainter(painter);
-
 		System.out.println("+READY");
 		System.out.flush();
 	}
@@ -117,158 +113,126 @@ public class Libretro
 
 		private class LibretroTimerTask extends TimerTask
 		{
-			private int bin;
-			private int[] din = new int[5];
-			private int count = 0;
 			private int code;
-			private StringBuilder path;
 			private URL url;
 
 			public void run()
 			{
 				try // to read keys
 				{
-					while(true)
+					while(reader.next())
 					{
-						bin = System.in.read();
-						if(bin==-1) { return; }
-						//System.out.print(" "+bin);
-						din[count] = (int)(bin & 0xFF);
-						count++;
-						if (count==5)
+						code = reader.code;
+						switch(reader.type)
 						{
-							count = 0;
-							code = (din[1]<<24) | (din[2]<<16) | (din[3]<<8) | din[4];
-							switch(din[0])
-							{
-								case 0: keyUp(getMobileKey(code)); break;
-
-								case 1:	keyDown(getMobileKey(code)); break;
-
-								case 2:	keyUp(getMobileKeyJoy(code)); break;
-
-								case 3: keyDown(getMobileKeyJoy(code)); break;
-
-								case 4: // mouse up
-									mousex = (din[1]<<8) | din[2];
-									mousey = (din[3]<<8) | din[4];
-									if(!rotateDisplay)
-									{
-										Mobile.getPlatform().pointerReleased(mousex, mousey);
-									}
-									else
-									{
-										Mobile.getPlatform().pointerReleased(mousey, mousex);
-									}
-								break;
-
-								case 5: // mouse down
-									mousex = (din[1]<<8) | din[2];
-									mousey = (din[3]<<8) | din[4];
-									if(!rotateDisplay)
-									{
-										Mobile.getPlatform().pointerPressed(mousex, mousey);
-									}
-									else
-									{
-										Mobile.getPlatform().pointerPressed(mousey, mousex);
-									}
-								break;
-
-								case 6: // mouse drag
-									mousex = (din[1]<<8) | din[2];
-									mousey = (din[3]<<8) | din[4];
-									if(!rotateDisplay)
-									{
-										Mobile.getPlatform().pointerDragged(mousex, mousey);
-									}
-									else
-									{
-										Mobile.getPlatform().pointerDragged(mousey, mousex);
-									}
-								break;
-
-								case 10: // load jar
-									path = new StringBuilder();
-									for(int i=0; i<code; i++)
-									{
-										bin = System.in.read();
-										path.append((char)bin);
-									}
-									url = (new File(path.toString())).toURI().toURL();
-									if(Mobile.getPlatform().loadJar(url.toString()))
-									{
-										// Check config
-										config.init();
-										settingsChanged();
-
-										// Run jar
-										Mobile.getPlatform().runJar();
-									}
-									else
-									{
-										System.out.println("Couldn't load jar...");
-										System.exit(0);
-									}
-								break;
-
-								case 11: // set save path //
-									path = new StringBuilder();
-									for(int i=0; i<code; i++)
-									{
-										bin = System.in.read();
-										path.append((char)bin);
-									}
-									Mobile.getPlatform().dataPath = path.toString();
-								break;
-
-								case 15:
-									// Send Frame Libretro //
-									try
-									{
-										int[] data;
-										if(config.isRunning)
-										{
-											data = config.getLCD().getRGB(0, 0, lcdWidth, lcdHeight, null, 0, lcdWidth);
-										}
-										else
-										{
-											data = surface.getRGB(0, 0, lcdWidth, lcdHeight, null, 0, lcdWidth);
-											if(limitFPS>0)
-											{
-												Thread.sleep(limitFPS);
-											}
-										}
-										int bufferLength = data.length*3;
-										int cb = 0;
-										for(int i=0; i<data.length; i++)
-										{
-											frameBuffer[cb]   = (byte)((data[i]>>16)&0xFF);
-											frameBuffer[cb+1] = (byte)((data[i]>>8)&0xFF);
-											frameBuffer[cb+2] = (byte)((data[i])&0xFF);
-											cb+=3;
-										}
-										//frameHeader[0] = (byte)0xFE;
-										frameHeader[1] = (byte)((lcdWidth>>8)&0xFF);
-										frameHeader[2] = (byte)((lcdWidth)&0xFF);
-										frameHeader[3] = (byte)((lcdHeight>>8)&0xFF);
-										frameHeader[4] = (byte)((lcdHeight)&0xFF);
-										//frameHeader[5] = rotate - set from config
-										System.out.write(frameHeader, 0, 6);
-										System.out.write(frameBuffer, 0, bufferLength);
-										System.out.flush();
-									}
-									catch (Exception e)
-									{
-										System.out.print("Error sending frame: "+e.getMessage());
-										System.exit(0);
-									}
-
-								break;
-							}
-							//System.out.println(" ("+code+") <- Key");
-							//System.out.flush();
+							case 0: keyUp(getMobileKey(code)); break;
+
+							case 1:	keyDown(getMobileKey(code)); break;
+
+							case 2:	keyUp(getMobileKeyJoy(code)); break;
+
+							case 3: keyDown(getMobileKeyJoy(code)); break;
+
+							case 4: // mouse up
+								mousex = (code>>>16) & 0xFFFF;
+								mousey = code & 0xFFFF;
+								if(!rotateDisplay)
+								{
+									Mobile.getPlatform().pointerReleased(mousex, mousey);
+								}
+								else
+								{
+									Mobile.getPlatform().pointerReleased(mousey, mousex);
+								}
+							break;
+
+							case 5: // mouse down
+								mousex = (code>>>16) & 0xFFFF;
+								mousey = code & 0xFFFF;
+								if(!rotateDisplay)
+								{
+									Mobile.getPlatform().pointerPressed(mousex, mousey);
+								}
+								else
+								{
+									Mobile.getPlatform().pointerPressed(mousey, mousex);
+								}
+							break;
+
+							case 6: // mouse drag
+								mousex = (code>>>16) & 0xFFFF;
+								mousey = code & 0xFFFF;
+								if(!rotateDisplay)
+								{
+									Mobile.getPlatform().pointerDragged(mousex, mousey);
+								}
+								else
+								{
+									Mobile.getPlatform().pointerDragged(mousey, mousex);
+								}
+							break;
+
+							case 10: // load jar
+								url = (new File(reader.readString(code))).toURI().toURL();
+								if(Mobile.getPlatform().loadJar(url.toString()))
+								{
+									// Check config
+									config.init();
+									settingsChanged();
+
+									// Run jar
+									Mobile.getPlatform().runJar();
+								}
+								else
+								{
+									System.out.println("Couldn't load jar...");
+									System.exit(0);
+								}
+							break;
+
+							case 11: // set save path //
+								Mobile.getPlatform().dataPath = reader.readString(code);
+							break;
+
+							case 12: // frames through shared memory //
+								try
+								{
+									shared = new SharedFrameBuffer(reader.readString(code), 800, 800);
+									slotFlips[0] = -1;
+									slotFlips[1] = -1;
+								}
+								catch (Exception e)
+								{
+									// The core keeps reading pipe frames //
+									shared = null;
+								}
+							break;
+
+							case 13: // pixel format for pipe frames //
+								encoder.setFormat(code);
+							break;
+
+							case 14: // changed rows only, also resets the reference frame //
+								sendRows = code!=0;
+								encoder.reset();
+								rowsFlip = -1;
+							break;
+
+							case 15:
+								// Send Frame Libretro //
+								try
+								{
+									sendFrame();
+								}
+								catch (Exception e)
+								{
+									System.out.print("Error sending frame: "+e.getMessage());
+									System.exit(0);
+								}
+
+							break;
 						}
+						reader.dispatched();
 					}
 				}
 				catch (Exception e) { System.exit(0); }
@@ -276,6 +240,85 @@ public class Libretro
 		} // timer
 	} // LibretroIO
 
+	private void sendFrame() throws Exception
+	{
+		BufferedImage frame;
+		int since = shared!=null ? slotFlips[shared.getSlot()^1] : rowsFlip;
+		int flip = -1;
+		damage.clear();
+		if(config.isRunning)
+		{
+			frame = config.getLCD();
+			damage.add(0, 0, frame.getWidth(), frame.getHeight());
+		}
+		else
+		{
+			if(limitFPS>0)
+			{
+				Thread.sleep(limitFPS);
+			}
+			// The last completed LCD page, pinned so the MIDlet flushes to another one //
+			flip = Mobile.getPlatform().getDamage(since, damage);
+			frame = Mobile.getPlatform().pinLCD();
+			try
+			{
+				sendFrame(frame, flip);
+			}
+			finally
+			{
+				Mobile.getPlatform().releaseLCD(frame);
+			}
+			return;
+		}
+		sendFrame(frame, flip);
+	}
+
+	private void sendFrame(BufferedImage frame, int flip) throws Exception
+	{
+		int[] data = ((DataBufferInt)frame.getRaster().getDataBuffer()).getData();
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+
+		frameHeader[1] = (byte)((width>>8)&0xFF);
+		frameHeader[2] = (byte)((width)&0xFF);
+		frameHeader[3] = (byte)((height>>8)&0xFF);
+		frameHeader[4] = (byte)((height)&0xFF);
+		frameHeader[5] = (byte)((rotateDisplay ? 1 : 0) | (encoder.getFormat()<<4));
+
+		if(shared!=null)
+		{
+			// Pixels go to the mapped file, the pipe only carries slot and sequence //
+			int seq = shared.write(data, width, height, rotateDisplay ? 1 : 0, damage.getTop(), damage.getBottom());
+			slotFlips[shared.getSlot()] = flip;
+			frameNotice[1] = (byte)shared.getSlot();
+			frameNotice[2] = (byte)((seq>>24)&0xFF);
+			frameNotice[3] = (byte)((seq>>16)&0xFF);
+			frameNotice[4] = (byte)((seq>>8)&0xFF);
+			frameNotice[5] = (byte)((seq)&0xFF);
+			System.out.write(frameNotice, 0, 6);
+			System.out.flush();
+			return;
+		}
+
+		if(sendRows)
+		{
+			// 0xFB carries the changed rows, 0xFC means the frame didn't change //
+			int length = encoder.encodeRows(data, width, height, damage.getTop(), damage.getBottom());
+			rowsFlip = flip;
+			frameHeader[0] = (byte)(length>0 ? 0xFB : 0xFC);
+			System.out.write(frameHeader, 0, 6);
+			System.out.write(encoder.getBuffer(), 0, length);
+			frameHeader[0] = (byte)0xFE;
+			System.out.flush();
+			return;
+		}
+
+		int length = encoder.encode(data, 0, width*height, 0);
+		System.out.write(frameHeader, 0, 6);
+		System.out.write(encoder.getBuffer(), 0, length);
+		System.out.flush();
+	}
+
 	private void settingsChanged()
 	{
 		int w = Integer.parseInt(config.settings.get("width"));
@@ -285,23 +328,30 @@ public class Libretro
 		if(limitFPS>0) { limitFPS = 1000 / limitFPS; }
 
 		String sound = config.settings.get("sound");
-		Mobile.sound = false;
-		if(sound.equals("on")) { Mobile.sound = true; }
+		Mobile.getPlatform().sound = false;
+		if(sound.equals("on")) { Mobile.getPlatform().sound = true; }
+
+		String raster = config.settings.get("raster");
+		Mobile.getPlatform().softwareRaster = raster.equals("software");
+
+		// KB //
+		Mobile.getPlatform().setResourceCacheSize(Long.parseLong(config.settings.get("resourcecache"))*1024);
+		Mobile.getPlatform().setTransformCacheSize(Long.parseLong(config.settings.get("transformcache"))*1024);
 
 		String phone = config.settings.get("phone");
 		useNokiaControls = false;
 		useSiemensControls = false;
 		useMotorolaControls = false;
-		Mobile.nokia = false;
-		Mobile.siemens = false;
-		Mobile.motorola = false;
-		if(phone.equals("Nokia")) { Mobile.nokia = true; useNokiaControls = true; }
-		if(phone.equals("Siemens")) { Mobile.siemens = true; useSiemensControls = true; }
-		if(phone.equals("Motorola")) { Mobile.motorola = true; useMotorolaControls = true; }
+		Mobile.getPlatform().nokia = false;
+		Mobile.getPlatform().siemens = false;
+		Mobile.getPlatform().motorola = false;
+		if(phone.equals("Nokia")) { Mobile.getPlatform().nokia = true; useNokiaControls = true; }
+		if(phone.equals("Siemens")) { Mobile.getPlatform().siemens = true; useSiemensControls = true; }
+		if(phone.equals("Motorola")) { Mobile.getPlatform().motorola = true; useMotorolaControls = true; }
 
 		String rotate = config.settings.get("rotate");
-		if(rotate.equals("on")) { rotateDisplay = true; frameHeader[5] = (byte)1; }
-		if(rotate.equals("off")) { rotateDisplay = false; frameHeader[5] = (byte)0; }
+		if(rotate.equals("on")) { rotateDisplay = true; }
+		if(rotate.equals("off")) { rotateDisplay = false; }
 
 
 		if(lcdWidth != w || lcdHeight != h)
@@ -309,8 +359,6 @@ public class Libretro
 			lcdWidth = w;
 			lcdHeight = h;
 			Mobile.getPlatform().resizeLCD(w, h);
-			surface = new BufferedImage(lcdWidth, lcdHeight, BufferedImage.TYPE_INT_ARGB); // libretro display
-			gc = (Graphics2D)surface.getGraphics();
 		}
 	}
 
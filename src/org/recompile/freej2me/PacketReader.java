@@ -0,0 +1,149 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.freej2me;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+/*
+
+	Packet Reader
+
+	Decodes the 5 byte input packets sent by the libretro core and the
+	SDL interface (type, then a big-endian 32 bit code). Reads are done
+	in bulk into one buffer, and whole packets are parsed out of it.
+
+	If the high bit of the type is set, the packet is followed by the
+	frontend's CLOCK_MONOTONIC time in nanoseconds (8 bytes, big-endian).
+	That is the clock System.nanoTime uses on Linux, so dispatched()
+	can measure how long the event took to reach the MIDlet.
+
+*/
+
+public class PacketReader
+{
+	public static final int TIMESTAMP = 0x80;
+
+	private InputStream in;
+	private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+	public int type;
+	public int code;
+	public long timestamp; // 0 if the packet had none
+
+	private int latencyCount = 0;
+	private long latencyTotal = 0;
+	private long latencyMax = 0;
+
+	public PacketReader(InputStream in)
+	{
+		this.in = in;
+		buffer.limit(0);
+	}
+
+	/*
+		Blocks until the next packet is decoded into type, code and
+		timestamp. Returns false at the end of the stream.
+	*/
+	public boolean next() throws IOException
+	{
+		if(!fill(5)) { return false; }
+		type = buffer.get() & 0xFF;
+		code = buffer.getInt();
+		timestamp = 0;
+		if((type & TIMESTAMP)!=0)
+		{
+			type &= ~TIMESTAMP;
+			if(!fill(8)) { return false; }
+			timestamp = buffer.getLong();
+		}
+		return true;
+	}
+
+	/*
+		Reads a payload that follows a packet, such as a path.
+	*/
+	public String readString(int length) throws IOException
+	{
+		StringBuilder out = new StringBuilder(length);
+		while(length>0)
+		{
+			if(!fill(1)) { break; }
+			int count = Math.min(length, buffer.remaining());
+			for(int i=0; i<count; i++)
+			{
+				out.append((char)(buffer.get() & 0xFF));
+			}
+			length -= count;
+		}
+		return out.toString();
+	}
+
+	/*
+		Call when the current packet has been handed to the platform.
+	*/
+	public void dispatched()
+	{
+		if(timestamp==0) { return; }
+		long latency = System.nanoTime() - timestamp;
+		if(latency<0) { return; } // not the same clock
+		synchronized(this)
+		{
+			latencyCount++;
+			latencyTotal += latency;
+			if(latency>latencyMax) { latencyMax = latency; }
+		}
+	}
+
+	public synchronized int getLatencyCount() { return latencyCount; }
+
+	public synchronized double getAverageLatencyMillis()
+	{
+		if(latencyCount==0) { return 0; }
+		return latencyTotal / (double)latencyCount / 1000000.0;
+	}
+
+	public synchronized double getMaxLatencyMillis() { return latencyMax / 1000000.0; }
+
+	public void printStats()
+	{
+		if(getLatencyCount()==0) { return; }
+		System.err.println("Input Latency: " + getLatencyCount() + " events, avg " + String.format("%.3f", getAverageLatencyMillis()) + "ms, max " + String.format("%.3f", getMaxLatencyMillis()) + "ms");
+	}
+
+	private boolean fill(int needed) throws IOException
+	{
+		if(buffer.remaining()>=needed) { return true; }
+		buffer.compact();
+		try
+		{
+			while(buffer.position()<needed)
+			{
+				int count = in.read(buffer.array(), buffer.position(), buffer.remaining());
+				if(count==-1) { return false; }
+				buffer.position(buffer.position()+count);
+			}
+		}
+		finally
+		{
+			buffer.flip();
+		}
+		return true;
+	}
+}
@@ -18,6 +18,8 @@ package org.recompile.freej2me;
 
 import org.recompile.mobile.*;
 
+import java.awt.image.BufferedImage;
+
 import java.io.File;
 import java.io.InputStream;
 import javax.imageio.ImageIO;
@@ -60,7 +62,15 @@ public class ScreenShot
 			}
 
 			File outputfile = new File(fileName);
-			ImageIO.write(Mobile.getPlatform().getLCD(), "png", outputfile);
+			BufferedImage lcd = Mobile.getPlatform().pinLCD();
+			try
+			{
+				ImageIO.write(lcd, "png", outputfile);
+			}
+			finally
+			{
+				Mobile.getPlatform().releaseLCD(lcd);
+			}
 			System.out.printf("Saved screenshot: %s\n", outputfile.toString());
 		}
 		catch (Exception e)
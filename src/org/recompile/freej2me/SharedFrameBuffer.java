@@ -0,0 +1,154 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.freej2me;
+
+import java.io.RandomAccessFile;
+
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+
+	Shared Frame Buffer
+
+	Frames for the libretro core, written to a memory-mapped file
+	(normally under /dev/shm) instead of the stdout pipe. Two slots are
+	used in turn, so the slot being written is never the one the core
+	was last told about. All fields are little-endian ints.
+
+	Header (64 bytes):
+	  0  magic "FJFB"
+	  4  version
+	  8  sequence of the last published frame
+	 12  slot of the last published frame
+	 16  slot size in bytes, including the slot header
+	 20  max width
+	 24  max height
+
+	Slot (16 byte header, then width*height XRGB8888 pixels):
+	  0  sequence
+	  4  width
+	  8  height
+	 12  rotate
+
+*/
+
+public class SharedFrameBuffer
+{
+	public static final int MAGIC = 0x42464A46; // "FJFB" read as little-endian
+	public static final int VERSION = 1;
+	public static final int HEADER = 64;
+	public static final int SLOT_HEADER = 16;
+
+	private MappedByteBuffer map;
+	private IntBuffer[] pixels = new IntBuffer[2];
+	private int slotSize;
+	private int sequence = 0;
+	private int slot = 0;
+
+	public SharedFrameBuffer(String path, int maxWidth, int maxHeight) throws Exception
+	{
+		slotSize = SLOT_HEADER + maxWidth*maxHeight*4;
+
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try
+		{
+			file.setLength(HEADER + 2*slotSize);
+			map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 2*slotSize);
+			map.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		finally
+		{
+			file.close(); // the mapping stays valid
+		}
+
+		for(int i=0; i<2; i++)
+		{
+			map.clear();
+			map.position(slotOffset(i) + SLOT_HEADER);
+			map.limit(slotOffset(i) + slotSize);
+			pixels[i] = map.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+		map.clear();
+
+		map.putInt(4, VERSION);
+		map.putInt(8, 0);
+		map.putInt(12, 0);
+		map.putInt(16, slotSize);
+		map.putInt(20, maxWidth);
+		map.putInt(24, maxHeight);
+		map.putInt(0, MAGIC);
+	}
+
+	/*
+		Copies a frame into the free slot and publishes it.
+		Returns the new sequence number.
+	*/
+	public int write(int[] data, int width, int height, int rotate)
+	{
+		return write(data, width, height, rotate, 0, height);
+	}
+
+	/*
+		As above, but only rows top to bottom are copied. The caller
+		keeps track of what the free slot (getSlot()^1) already holds.
+		A slot holding a different size is always copied in full.
+	*/
+	public int write(int[] data, int width, int height, int rotate, int top, int bottom)
+	{
+		int next = slot ^ 1;
+		int base = slotOffset(next);
+
+		if(map.getInt(base+4)!=width || map.getInt(base+8)!=height)
+		{
+			top = 0;
+			bottom = height;
+		}
+		top = Math.max(0, top);
+		bottom = Math.min(height, bottom);
+
+		IntBuffer out = pixels[next];
+		if(top<bottom)
+		{
+			out.clear();
+			out.position(top*width);
+			out.put(data, top*width, (bottom-top)*width);
+		}
+
+		sequence++;
+		map.putInt(base+4, width);
+		map.putInt(base+8, height);
+		map.putInt(base+12, rotate);
+		map.putInt(base, sequence);
+
+		slot = next;
+		map.putInt(12, slot);
+		map.putInt(8, sequence);
+		return sequence;
+	}
+
+	public int getSlot() { return slot; }
+
+	public int getSequence() { return sequence; }
+
+	private int slotOffset(int i)
+	{
+		return HEADER + i*slotSize;
+	}
+}
@@ -0,0 +1,198 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import javax.microedition.lcdui.game.Sprite;
+
+/*
+
+	Blitter
+
+	Copies ARGB pixels between int arrays. The source is walked with an
+	index step per destination column and per destination row, so a
+	scanline offset, negative scanlengths and the Sprite transforms all
+	use the same loop. Clipping is up to the caller. Rows read left to
+	right go to PixelKernels.
+
+	COPY    pixels are copied as they are
+	OPAQUE  alpha is forced to 0xFF
+	BLEND   source over, like Java2D's default composite
+	MASKED  source over for pixels that are either fully opaque or
+	        fully transparent, which is then just a masked copy
+
+*/
+
+public class Blitter
+{
+	public static final int COPY = 0;
+	public static final int OPAQUE = 1;
+	public static final int BLEND = 2;
+	public static final int MASKED = 3;
+
+	private static final PixelKernels kernels = PixelKernels.get();
+
+	public static void blit(int[] src, int base, int stepX, int stepY, int[] dst, int dstBase, int dstStride, int width, int height, int mode)
+	{
+		for(int row=0; row<height; row++)
+		{
+			int s = base + row*stepY;
+			int d = dstBase + row*dstStride;
+			int end = d+width;
+
+			switch(mode)
+			{
+				case COPY:
+					if(stepX==1)
+					{
+						System.arraycopy(src, s, dst, d, width);
+						break;
+					}
+					for(; d<end; d++, s+=stepX) { dst[d] = src[s]; }
+				break;
+
+				case OPAQUE:
+					if(stepX==1)
+					{
+						kernels.opaque(src, s, dst, d, width);
+						break;
+					}
+					for(; d<end; d++, s+=stepX) { dst[d] = src[s] | 0xFF000000; }
+				break;
+
+				case MASKED:
+					if(stepX==1)
+					{
+						kernels.masked(src, s, dst, d, width);
+						break;
+					}
+					for(; d<end; d++, s+=stepX)
+					{
+						int pixel = src[s];
+						if(pixel>>>24!=0) { dst[d] = pixel; }
+					}
+				break;
+
+				default:
+					if(stepX==1)
+					{
+						kernels.blend(src, s, dst, d, width);
+						break;
+					}
+					for(; d<end; d++, s+=stepX)
+					{
+						int pixel = src[s];
+						int alpha = pixel>>>24;
+						if(alpha==0xFF) { dst[d] = pixel; }
+						else if(alpha!=0) { dst[d] = blend(pixel, dst[d]); }
+					}
+			}
+		}
+	}
+
+	/*
+		Fills color through a coverage mask (one byte per pixel), for
+		glyphs. Full coverage of an opaque color is a plain store.
+	*/
+	public static void fillMask(byte[] mask, int base, int maskStride, int color, int[] dst, int dstBase, int dstStride, int width, int height)
+	{
+		int alpha = color>>>24;
+		int rgb = color & 0xFFFFFF;
+		for(int row=0; row<height; row++)
+		{
+			int m = base + row*maskStride;
+			int d = dstBase + row*dstStride;
+			int end = d+width;
+			for(; d<end; d++, m++)
+			{
+				int coverage = mask[m] & 0xFF;
+				if(coverage==0) { continue; }
+				if(coverage==0xFF && alpha==0xFF) { dst[d] = color; }
+				else { dst[d] = blend(((coverage*alpha/0xFF)<<24) | rgb, dst[d]); }
+			}
+		}
+	}
+
+	/*
+		Source over for non-premultiplied ARGB.
+	*/
+	public static int blend(int src, int dst)
+	{
+		int alpha = src>>>24;
+		int weight = (dst>>>24) * (0xFF-alpha) / 0xFF;
+		int outAlpha = alpha + weight;
+		if(outAlpha==0) { return dst; }
+		int r = (((src>>16)&0xFF)*alpha + ((dst>>16)&0xFF)*weight) / outAlpha;
+		int g = (((src>>8)&0xFF)*alpha + ((dst>>8)&0xFF)*weight) / outAlpha;
+		int b = ((src&0xFF)*alpha + (dst&0xFF)*weight) / outAlpha;
+		return (outAlpha<<24) | (r<<16) | (g<<8) | b;
+	}
+
+	/*
+		Walking a width x height source region (starting at offset, rows
+		scanlength apart) in the order of its Sprite transformed image:
+		index of the first pixel, and the step per column and per row.
+	*/
+	public static int transformStart(int transform, int offset, int scanlength, int width, int height)
+	{
+		switch(transform)
+		{
+			case Sprite.TRANS_ROT90: return offset + (height-1)*scanlength;
+			case Sprite.TRANS_ROT180: return offset + (height-1)*scanlength + width-1;
+			case Sprite.TRANS_ROT270: return offset + width-1;
+			case Sprite.TRANS_MIRROR: return offset + width-1;
+			case Sprite.TRANS_MIRROR_ROT90: return offset + (height-1)*scanlength + width-1;
+			case Sprite.TRANS_MIRROR_ROT180: return offset + (height-1)*scanlength;
+		}
+		return offset;
+	}
+
+	public static int transformStepX(int transform, int scanlength)
+	{
+		switch(transform)
+		{
+			case Sprite.TRANS_ROT90: return -scanlength;
+			case Sprite.TRANS_ROT180: return -1;
+			case Sprite.TRANS_ROT270: return scanlength;
+			case Sprite.TRANS_MIRROR: return -1;
+			case Sprite.TRANS_MIRROR_ROT90: return -scanlength;
+			case Sprite.TRANS_MIRROR_ROT270: return scanlength;
+		}
+		return 1;
+	}
+
+	public static int transformStepY(int transform, int scanlength)
+	{
+		switch(transform)
+		{
+			case Sprite.TRANS_ROT90: return 1;
+			case Sprite.TRANS_ROT180: return -scanlength;
+			case Sprite.TRANS_ROT270: return -1;
+			case Sprite.TRANS_MIRROR_ROT90: return -1;
+			case Sprite.TRANS_MIRROR_ROT180: return -scanlength;
+			case Sprite.TRANS_MIRROR_ROT270: return 1;
+		}
+		return scanlength;
+	}
+
+	/*
+		True if the transform swaps width and height.
+	*/
+	public static boolean transformSwaps(int transform)
+	{
+		return transform==Sprite.TRANS_ROT90 || transform==Sprite.TRANS_ROT270 || transform==Sprite.TRANS_MIRROR_ROT90 || transform==Sprite.TRANS_MIRROR_ROT270;
+	}
+}
@@ -0,0 +1,69 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+
+/*
+
+	InputStream over a ByteBuffer, used to hand out views of jar
+	resources without copying them.
+
+*/
+
+public class BufferInputStream extends InputStream
+{
+	private ByteBuffer data;
+	private int mark = 0;
+
+	public BufferInputStream(ByteBuffer data)
+	{
+		this.data = data;
+	}
+
+	public int read()
+	{
+		if(!data.hasRemaining()) { return -1; }
+		return data.get() & 0xFF;
+	}
+
+	public int read(byte[] b, int off, int len)
+	{
+		if(len==0) { return 0; }
+		if(!data.hasRemaining()) { return -1; }
+		len = Math.min(len, data.remaining());
+		data.get(b, off, len);
+		return len;
+	}
+
+	public long skip(long n)
+	{
+		int count = (int)Math.max(0, Math.min(n, data.remaining()));
+		data.position(data.position()+count);
+		return count;
+	}
+
+	public int available() { return data.remaining(); }
+
+	public boolean markSupported() { return true; }
+
+	public void mark(int readlimit) { mark = data.position(); }
+
+	public void reset() { data.position(mark); }
+}
@@ -0,0 +1,180 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.io.InputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import java.net.URL;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import java.security.MessageDigest;
+
+/*
+
+	Class Cache
+
+	Keeps instrumented MIDlet classes on disk so that later launches of
+	the same jar can skip the ASM pass. Entries live under
+	dataPath/cache/classes/<jar sha1>-v<instrumentation version>/, one
+	file per class named by the sha1 of the class name so that names
+	differing only in case don't collide on case-insensitive filesystems.
+
+*/
+
+public class ClassCache
+{
+	private static final int MAGIC = 0x464A4343; // FJCC
+
+	private Path cachePath;
+
+	private int hits = 0;
+	private int misses = 0;
+	private long savedNanos = 0;
+
+	public ClassCache(URL jar, String dataPath, int version) throws Exception
+	{
+		cachePath = Paths.get(dataPath + "cache/classes/" + hashJar(jar) + "-v" + version);
+		Files.createDirectories(cachePath);
+	}
+
+	public synchronized int getHits() { return hits; }
+
+	public synchronized int getMisses() { return misses; }
+
+	public synchronized long getSavedMillis() { return savedNanos / 1000000; }
+
+	/*
+		Returns the cached instrumented bytecode, or null on a miss.
+	*/
+	public byte[] get(String name)
+	{
+		long start = System.nanoTime();
+		Path file = classPath(name);
+		try
+		{
+			if(Files.exists(file))
+			{
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+				if(in.readInt() == MAGIC && in.readUTF().equals(name))
+				{
+					long instrumentNanos = in.readLong();
+					byte[] code = new byte[in.readInt()];
+					in.readFully(code);
+					synchronized(this)
+					{
+						hits++;
+						savedNanos += Math.max(0, instrumentNanos - (System.nanoTime() - start));
+					}
+					return code;
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Class Cache: Can't Read " + name);
+		}
+		synchronized(this) { misses++; }
+		return null;
+	}
+
+	/*
+		Stores freshly instrumented bytecode along with the time the
+		instrumentation took, so later hits can report time saved.
+	*/
+	public void put(String name, byte[] code, long instrumentNanos)
+	{
+		Path file = classPath(name);
+		try
+		{
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(code.length + 16);
+			DataOutputStream out = new DataOutputStream(buffer);
+			out.writeInt(MAGIC);
+			out.writeUTF(name);
+			out.writeLong(instrumentNanos);
+			out.writeInt(code.length);
+			out.write(code);
+			out.close();
+
+			// Write then rename, several emulators may share the same cache //
+			Path temp = Files.createTempFile(cachePath, "class", ".tmp");
+			Files.write(temp, buffer.toByteArray());
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (Exception e)
+		{
+			System.out.println("Class Cache: Can't Write " + name);
+		}
+	}
+
+	public void printStats()
+	{
+		Mobile.log("Class Cache: " + getHits() + " hits, " + getMisses() + " misses, " + getSavedMillis() + "ms saved");
+	}
+
+	private Path classPath(String name)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return cachePath.resolve(hex(digest.digest(name.getBytes("UTF-8"))) + ".class");
+		}
+		catch (Exception e)
+		{
+			// every JRE ships SHA-1 and UTF-8 //
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String hashJar(URL jar) throws Exception
+	{
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		InputStream stream = jar.openStream();
+		try
+		{
+			int count;
+			byte[] data = new byte[65536];
+			while ((count = stream.read(data)) != -1)
+			{
+				digest.update(data, 0, count);
+			}
+		}
+		finally
+		{
+			stream.close();
+		}
+
+		return hex(digest.digest());
+	}
+
+	private static String hex(byte[] hash)
+	{
+		StringBuilder hex = new StringBuilder(hash.length * 2);
+		for (byte b : hash)
+		{
+			hex.append(String.format("%02x", b & 0xFF));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,197 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import com.nokia.mid.ui.DirectGraphics;
+
+/*
+
+	Direct Pixels
+
+	The Nokia DirectGraphics byte formats, to and from ARGB:
+
+	TYPE_BYTE_1_GRAY           1 bit, set is black, leftmost pixel in the high bit
+	TYPE_BYTE_1_GRAY_VERTICAL  1 bit, 8 pixels down a column per byte, top pixel in the low bit
+	TYPE_BYTE_2_GRAY           2 bits, 4 grays, 0 is black
+	TYPE_BYTE_4_GRAY           4 bits, 16 grays, 0 is black
+	TYPE_BYTE_8_GRAY           8 bits, 256 grays, 0 is black
+	TYPE_BYTE_332_RGB          8 bits, RRRGGGBB
+
+	Offsets and scanlengths count pixels, not bytes. Each value is a
+	palette index, so all the horizontal formats share one loop.
+
+	The transparency mask has the same layout as the pixels. A mask
+	value of 0 is transparent, the largest value is opaque, and values
+	in between are scaled to alpha. A null mask means opaque.
+
+*/
+
+public class DirectPixels
+{
+	private static final int[] GRAY1 = { 0xFFFFFFFF, 0xFF000000 };
+	private static final int[] GRAY2 = palette(2);
+	private static final int[] GRAY4 = palette(4);
+	private static final int[] GRAY8 = palette(8);
+	private static final int[] RGB332 = new int[256];
+
+	static
+	{
+		for(int i=0; i<256; i++)
+		{
+			int r = ((i>>5)&7) * 0xFF / 7;
+			int g = ((i>>2)&7) * 0xFF / 7;
+			int b = (i&3) * 0x55;
+			RGB332[i] = 0xFF000000 | (r<<16) | (g<<8) | b;
+		}
+	}
+
+	private static int[] palette(int bits)
+	{
+		int max = (1<<bits)-1;
+		int[] out = new int[max+1];
+		for(int i=0; i<=max; i++)
+		{
+			int gray = i * 0xFF / max;
+			out[i] = 0xFF000000 | (gray<<16) | (gray<<8) | gray;
+		}
+		return out;
+	}
+
+	/*
+		Bits per pixel, or 0 if the format isn't a byte format.
+	*/
+	public static int bits(int format)
+	{
+		switch(format)
+		{
+			case DirectGraphics.TYPE_BYTE_1_GRAY:
+			case DirectGraphics.TYPE_BYTE_1_GRAY_VERTICAL:
+				return 1;
+			case DirectGraphics.TYPE_BYTE_2_GRAY: return 2;
+			case DirectGraphics.TYPE_BYTE_4_GRAY: return 4;
+			case DirectGraphics.TYPE_BYTE_8_GRAY:
+			case DirectGraphics.TYPE_BYTE_332_RGB:
+				return 8;
+		}
+		return 0;
+	}
+
+	private static int[] colors(int format)
+	{
+		switch(format)
+		{
+			case DirectGraphics.TYPE_BYTE_2_GRAY: return GRAY2;
+			case DirectGraphics.TYPE_BYTE_4_GRAY: return GRAY4;
+			case DirectGraphics.TYPE_BYTE_8_GRAY: return GRAY8;
+			case DirectGraphics.TYPE_BYTE_332_RGB: return RGB332;
+		}
+		return GRAY1;
+	}
+
+	/*
+		Decodes width x height pixels into out, rows width apart.
+	*/
+	public static void decode(byte[] pixels, byte[] mask, int offset, int scanlength, int width, int height, int format, int[] out)
+	{
+		int bits = bits(format);
+		int max = (1<<bits)-1;
+		int[] colors = colors(format);
+		boolean vertical = format==DirectGraphics.TYPE_BYTE_1_GRAY_VERTICAL;
+
+		for(int row=0; row<height; row++)
+		{
+			int target = row*width;
+			if(vertical)
+			{
+				int down = offset/scanlength + row;
+				int index = (down>>3)*scanlength + offset%scanlength;
+				int shift = down&7;
+				for(int col=0; col<width; col++)
+				{
+					int color = colors[(pixels[index+col]>>shift)&1];
+					if(mask!=null && ((mask[index+col]>>shift)&1)==0) { color &= 0x00FFFFFF; }
+					out[target+col] = color;
+				}
+				continue;
+			}
+
+			int bit = (offset + row*scanlength) * bits;
+			for(int col=0; col<width; col++, bit+=bits)
+			{
+				int index = bit>>3;
+				int shift = 8-bits-(bit&7);
+				int color = colors[(pixels[index]>>shift)&max];
+				if(mask!=null)
+				{
+					int alpha = ((mask[index]>>shift)&max) * 0xFF / max;
+					color = (alpha<<24) | (color&0x00FFFFFF);
+				}
+				out[target+col] = color;
+			}
+		}
+	}
+
+	/*
+		Encodes width x height ARGB pixels (rows stride apart, from
+		start) into the format. Grays use the luminance, 1 bit is black
+		below half. The mask, if there is one, gets the alpha. Only the
+		bits of the region are changed in both arrays.
+	*/
+	public static void encode(int[] data, int start, int stride, byte[] pixels, byte[] mask, int offset, int scanlength, int width, int height, int format)
+	{
+		int bits = bits(format);
+		int max = (1<<bits)-1;
+		boolean vertical = format==DirectGraphics.TYPE_BYTE_1_GRAY_VERTICAL;
+
+		for(int row=0; row<height; row++)
+		{
+			int source = start + row*stride;
+			int down = vertical ? offset/scanlength + row : 0;
+			int bit = (offset + row*scanlength) * bits;
+			for(int col=0; col<width; col++, bit+=bits)
+			{
+				int argb = data[source+col];
+				int value;
+				if(format==DirectGraphics.TYPE_BYTE_332_RGB)
+				{
+					value = ((argb>>16)&0xE0) | ((argb>>11)&0x1C) | ((argb>>6)&0x03);
+				}
+				else
+				{
+					int gray = (((argb>>16)&0xFF)*299 + ((argb>>8)&0xFF)*587 + (argb&0xFF)*114) / 1000;
+					value = bits==1 ? (gray<0x80 ? 1 : 0) : (gray*max + 0x7F) / 0xFF;
+				}
+				int alpha = ((argb>>>24)*max + 0x7F) / 0xFF;
+
+				int index;
+				int shift;
+				if(vertical)
+				{
+					index = (down>>3)*scanlength + offset%scanlength + col;
+					shift = down&7;
+				}
+				else
+				{
+					index = bit>>3;
+					shift = 8-bits-(bit&7);
+				}
+				pixels[index] = (byte)((pixels[index] & ~(max<<shift)) | (value<<shift));
+				if(mask!=null) { mask[index] = (byte)((mask[index] & ~(max<<shift)) | (alpha<<shift)); }
+			}
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+/*
+
+	Dirty Region
+
+	A small set of rectangles covering everything drawn since the last
+	clear(). Overlapping rectangles are merged, and once the set is
+	full the pair that grows the least is merged, so adding is cheap
+	and never allocates.
+
+*/
+
+public class DirtyRegion
+{
+	public static final int MAX_RECTS = 8;
+
+	// Rectangle edges, right and bottom are exclusive //
+	private int[] left = new int[MAX_RECTS+1];
+	private int[] top = new int[MAX_RECTS+1];
+	private int[] right = new int[MAX_RECTS+1];
+	private int[] bottom = new int[MAX_RECTS+1];
+	private int count = 0;
+
+	public boolean isEmpty() { return count==0; }
+
+	public int size() { return count; }
+
+	public int getX(int i) { return left[i]; }
+
+	public int getY(int i) { return top[i]; }
+
+	public int getWidth(int i) { return right[i]-left[i]; }
+
+	public int getHeight(int i) { return bottom[i]-top[i]; }
+
+	public void clear() { count = 0; }
+
+	public void add(int x, int y, int width, int height)
+	{
+		if(width<=0 || height<=0) { return; }
+		int x2 = x+width;
+		int y2 = y+height;
+
+		for(int i=0; i<count; i++)
+		{
+			if(x>=left[i] && y>=top[i] && x2<=right[i] && y2<=bottom[i]) { return; }
+		}
+
+		left[count] = x;
+		top[count] = y;
+		right[count] = x2;
+		bottom[count] = y2;
+		count++;
+
+		// Merge overlapping rectangles into the new one //
+		int n = count-1;
+		int i = 0;
+		while(i<count)
+		{
+			if(i!=n && left[i]<=right[n] && right[i]>=left[n] && top[i]<=bottom[n] && bottom[i]>=top[n])
+			{
+				union(n, i);
+				remove(i);
+				if(n==count) { n = i; } // it was last, remove() moved it
+				i = 0;
+			}
+			else
+			{
+				i++;
+			}
+		}
+
+		if(count>MAX_RECTS) { mergeCheapest(); }
+	}
+
+	public void add(DirtyRegion region)
+	{
+		for(int i=0; i<region.count; i++)
+		{
+			add(region.left[i], region.top[i], region.right[i]-region.left[i], region.bottom[i]-region.top[i]);
+		}
+	}
+
+	/*
+		Limits every rectangle to the given area.
+	*/
+	public void clip(int x, int y, int width, int height)
+	{
+		int i = 0;
+		while(i<count)
+		{
+			left[i] = Math.max(left[i], x);
+			top[i] = Math.max(top[i], y);
+			right[i] = Math.min(right[i], x+width);
+			bottom[i] = Math.min(bottom[i], y+height);
+			if(left[i]>=right[i] || top[i]>=bottom[i]) { remove(i); }
+			else { i++; }
+		}
+	}
+
+	/*
+		First and last+1 row touched, for row based transfers.
+	*/
+	public int getTop()
+	{
+		int out = Integer.MAX_VALUE;
+		for(int i=0; i<count; i++) { out = Math.min(out, top[i]); }
+		return out;
+	}
+
+	public int getBottom()
+	{
+		int out = 0;
+		for(int i=0; i<count; i++) { out = Math.max(out, bottom[i]); }
+		return out;
+	}
+
+	private void union(int into, int from)
+	{
+		left[into] = Math.min(left[into], left[from]);
+		top[into] = Math.min(top[into], top[from]);
+		right[into] = Math.max(right[into], right[from]);
+		bottom[into] = Math.max(bottom[into], bottom[from]);
+	}
+
+	private void remove(int i)
+	{
+		count--;
+		left[i] = left[count];
+		top[i] = top[count];
+		right[i] = right[count];
+		bottom[i] = bottom[count];
+	}
+
+	private void mergeCheapest()
+	{
+		int bestA = 0;
+		int bestB = 1;
+		long bestGrowth = Long.MAX_VALUE;
+		for(int a=0; a<count; a++)
+		{
+			for(int b=a+1; b<count; b++)
+			{
+				long w = Math.max(right[a], right[b]) - Math.min(left[a], left[b]);
+				long h = Math.max(bottom[a], bottom[b]) - Math.min(top[a], top[b]);
+				long growth = w*h - area(a) - area(b);
+				if(growth<bestGrowth) { bestGrowth = growth; bestA = a; bestB = b; }
+			}
+		}
+		union(bestA, bestB);
+		remove(bestB);
+	}
+
+	private long area(int i)
+	{
+		return (long)(right[i]-left[i]) * (bottom[i]-top[i]);
+	}
+}
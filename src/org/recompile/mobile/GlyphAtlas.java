@@ -0,0 +1,260 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+
+	Glyph Atlas
+
+	Each glyph of an AWT font, rasterized once by AWT into a shared
+	coverage mask (one byte per pixel, rows STRIDE apart). Glyphs are
+	packed in shelves, and the mask grows downwards as needed.
+
+	Glyph ids index the tables below. A glyph is drawn at
+	(pen+left, baseline+top), and the pen moves on by its advance,
+	which is what AWT does for text that needs no layout. Text that does
+	(see needsLayout) still has to go through AWT.
+
+	Advances are also kept by character, without rasterizing: Latin-1
+	up front, lock free, and other pages of 256 as they're measured.
+
+	Atlases are shared by every PlatformFont with the same AWT font.
+
+*/
+
+public class GlyphAtlas
+{
+	public static final int STRIDE = 256;
+
+	private static HashMap<java.awt.Font, GlyphAtlas> atlases = new HashMap<java.awt.Font, GlyphAtlas>();
+
+	public static synchronized GlyphAtlas get(java.awt.Font font)
+	{
+		GlyphAtlas atlas = atlases.get(font);
+		if(atlas==null)
+		{
+			atlas = new GlyphAtlas(font);
+			atlases.put(font, atlas);
+		}
+		return atlas;
+	}
+
+	public byte[] mask = new byte[STRIDE*32];
+
+	// Per glyph //
+	public int[] x = new int[128];
+	public int[] y = new int[128];
+	public int[] width = new int[128];
+	public int[] height = new int[128];
+	public int[] left = new int[128];
+	public int[] top = new int[128];
+	public int[] advance = new int[128];
+	private int count = 0;
+
+	// Glyph id+1 by character, 256 characters per page //
+	private int[][] pages = new int[256][];
+
+	// Advance by character //
+	private final int[] latin;
+	private int[][] widthPages = new int[256][];
+
+	// Shelf packing //
+	private int shelfX = 0;
+	private int shelfY = 0;
+	private int shelfHeight = 0;
+
+	public final int ascent;
+	public final int descent;
+	public final int lineHeight;
+
+	private FontMetrics metrics;
+	private BufferedImage scratch;
+	private Graphics2D gc;
+	private int margin;
+
+	private GlyphAtlas(java.awt.Font font)
+	{
+		margin = font.getSize()+2;
+		scratch = new BufferedImage(margin*4, margin*4, BufferedImage.TYPE_INT_ARGB);
+		gc = scratch.createGraphics();
+		gc.setFont(font);
+		gc.setBackground(new Color(0, 0, 0, 0));
+		gc.setColor(Color.WHITE);
+		metrics = gc.getFontMetrics();
+		ascent = metrics.getAscent();
+		descent = metrics.getDescent();
+		lineHeight = metrics.getHeight();
+		latin = metrics.getWidths();
+	}
+
+	/*
+		Characters in scripts that are shaped, combined or reordered.
+	*/
+	public static boolean needsLayout(char c)
+	{
+		return (c>=0x0300 && c<0x0370) || (c>=0x0590 && c<0x1E00) || (c>=0x200C && c<0x2010) ||
+			(c>=0x202A && c<0x202F) || (c>=0xD800 && c<0xE000) || (c>=0xFB1D && c<0xFF00);
+	}
+
+	public static boolean needsLayout(String str, char[] data, int offset, int length)
+	{
+		for(int i=offset; i<offset+length; i++)
+		{
+			if(needsLayout(data!=null ? data[i] : str.charAt(i))) { return true; }
+		}
+		return false;
+	}
+
+	public synchronized int glyph(char c)
+	{
+		return find(c);
+	}
+
+	// Same as glyph, for callers already holding the lock //
+	int find(char c)
+	{
+		int[] page = pages[c>>8];
+		if(page==null)
+		{
+			page = new int[256];
+			pages[c>>8] = page;
+		}
+		if(page[c&0xFF]==0) { page[c&0xFF] = rasterize(c)+1; }
+		return page[c&0xFF]-1;
+	}
+
+	public int charWidth(char c)
+	{
+		return c<256 ? latin[c] : wideWidth(c);
+	}
+
+	private synchronized int wideWidth(char c)
+	{
+		int[] page = widthPages[c>>8];
+		if(page==null)
+		{
+			page = new int[256];
+			for(int i=0; i<256; i++) { page[i] = metrics.charWidth((char)((c&0xFF00)|i)); }
+			widthPages[c>>8] = page;
+		}
+		return page[c&0xFF];
+	}
+
+	/*
+		Width of text that needs no layout.
+	*/
+	public int textWidth(String str, char[] data, int offset, int length)
+	{
+		int out = 0;
+		for(int i=offset; i<offset+length; i++)
+		{
+			char c = data!=null ? data[i] : str.charAt(i);
+			out += c<256 ? latin[c] : wideWidth(c);
+		}
+		return out;
+	}
+
+	/*
+		Width of any text, as AWT measures it.
+	*/
+	public synchronized int stringWidth(String str)
+	{
+		return metrics.stringWidth(str);
+	}
+
+	private int rasterize(char c)
+	{
+		gc.clearRect(0, 0, scratch.getWidth(), scratch.getHeight());
+		gc.drawString(String.valueOf(c), margin, margin+ascent);
+
+		// Bounds of the covered pixels //
+		int[] data = ((DataBufferInt)scratch.getRaster().getDataBuffer()).getData();
+		int size = scratch.getWidth();
+		int minX = size;
+		int minY = size;
+		int maxX = -1;
+		int maxY = -1;
+		for(int row=0; row<size; row++)
+		{
+			for(int col=0; col<size; col++)
+			{
+				if(data[row*size+col]>>>24==0) { continue; }
+				minX = Math.min(minX, col);
+				maxX = Math.max(maxX, col);
+				minY = Math.min(minY, row);
+				maxY = Math.max(maxY, row);
+			}
+		}
+		int w = Math.min(STRIDE, Math.max(0, maxX-minX+1));
+		int h = Math.max(0, maxY-minY+1);
+
+		if(count==x.length) { grow(); }
+		int id = count++;
+		width[id] = w;
+		height[id] = h;
+		left[id] = minX-margin;
+		top[id] = minY-margin-ascent;
+		advance[id] = charWidth(c);
+		if(w==0) { return id; }
+
+		if(shelfX+w>STRIDE)
+		{
+			shelfX = 0;
+			shelfY += shelfHeight;
+			shelfHeight = 0;
+		}
+		while((shelfY+h)*STRIDE>mask.length)
+		{
+			byte[] bigger = new byte[mask.length*2];
+			System.arraycopy(mask, 0, bigger, 0, mask.length);
+			mask = bigger;
+		}
+		x[id] = shelfX;
+		y[id] = shelfY;
+		for(int row=0; row<h; row++)
+		{
+			for(int col=0; col<w; col++)
+			{
+				mask[(shelfY+row)*STRIDE + shelfX+col] = (byte)(data[(minY+row)*size + minX+col]>>>24);
+			}
+		}
+		shelfX += w;
+		shelfHeight = Math.max(shelfHeight, h);
+		return id;
+	}
+
+	private void grow()
+	{
+		int size = x.length*2;
+		x = Arrays.copyOf(x, size);
+		y = Arrays.copyOf(y, size);
+		width = Arrays.copyOf(width, size);
+		height = Arrays.copyOf(height, size);
+		left = Arrays.copyOf(left, size);
+		top = Arrays.copyOf(top, size);
+		advance = Arrays.copyOf(advance, size);
+	}
+}
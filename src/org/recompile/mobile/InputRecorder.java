@@ -0,0 +1,98 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+
+/*
+
+	Input Recorder
+
+	Logs input events with the frame they arrived in, see InputReplayer.
+
+	Format: "FJIR" and a version byte, then per event
+	  varint frame delta, byte type, zigzag varint key
+	  or varint frame delta, byte type, zigzag varint x, zigzag varint y
+
+*/
+
+public class InputRecorder
+{
+	public static final byte[] MAGIC = { 'F', 'J', 'I', 'R' };
+	public static final int VERSION = 1;
+
+	public static final int KEY_PRESSED = 0;
+	public static final int KEY_RELEASED = 1;
+	public static final int POINTER_PRESSED = 2;
+	public static final int POINTER_RELEASED = 3;
+	public static final int POINTER_DRAGGED = 4;
+
+	private OutputStream out;
+	private int lastFrame = 0;
+
+	public InputRecorder(String file) throws IOException
+	{
+		out = new BufferedOutputStream(new FileOutputStream(file));
+		out.write(MAGIC);
+		out.write(VERSION);
+		out.flush();
+	}
+
+	public synchronized void record(int frame, int type, int a, int b)
+	{
+		if(out==null) { return; }
+		try
+		{
+			writeVarint(frame - lastFrame);
+			lastFrame = frame;
+			out.write(type);
+			writeVarint((a << 1) ^ (a >> 31));
+			if(type>=POINTER_PRESSED)
+			{
+				writeVarint((b << 1) ^ (b >> 31));
+			}
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Input Recorder: "+e.getMessage());
+		}
+	}
+
+	public synchronized void close()
+	{
+		try
+		{
+			if(out!=null) { out.close(); }
+		}
+		catch (IOException e) { }
+		out = null;
+	}
+
+	private void writeVarint(int value) throws IOException
+	{
+		while((value & ~0x7F) != 0)
+		{
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
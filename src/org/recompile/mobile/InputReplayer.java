@@ -0,0 +1,140 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+
+import java.util.Arrays;
+
+/*
+
+	Input Replayer
+
+	Plays back an InputRecorder log. MobilePlatform calls dispatch()
+	after every flushGraphics/repaint, and events recorded while that
+	many frames had been shown are sent again.
+
+*/
+
+public class InputReplayer
+{
+	private int[] frames = new int[256];
+	private int[] types = new int[256];
+	private int[] as = new int[256];
+	private int[] bs = new int[256];
+	private int count = 0;
+	private int next = 0;
+
+	public InputReplayer(String file) throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try
+		{
+			byte[] magic = new byte[4];
+			for(int i=0; i<4; i++) { magic[i] = (byte)in.read(); }
+			if(!Arrays.equals(magic, InputRecorder.MAGIC) || in.read()!=InputRecorder.VERSION)
+			{
+				throw new IOException("Not an input recording: "+file);
+			}
+
+			int frame = 0;
+			int delta;
+			while((delta = readVarint(in, true)) != -1)
+			{
+				if(count==frames.length)
+				{
+					frames = Arrays.copyOf(frames, count*2);
+					types = Arrays.copyOf(types, count*2);
+					as = Arrays.copyOf(as, count*2);
+					bs = Arrays.copyOf(bs, count*2);
+				}
+				frame += delta;
+				frames[count] = frame;
+				types[count] = in.read();
+				as[count] = unzigzag(readVarint(in, false));
+				if(types[count]>=InputRecorder.POINTER_PRESSED)
+				{
+					bs[count] = unzigzag(readVarint(in, false));
+				}
+				count++;
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	public synchronized boolean isFinished() { return next>=count; }
+
+	/*
+		Sends every event recorded at or before the given frame.
+	*/
+	public void dispatch(MobilePlatform platform, int frame)
+	{
+		while(true)
+		{
+			int i;
+			synchronized(this)
+			{
+				if(next>=count || frames[next]>frame) { return; }
+				i = next++;
+			}
+			try
+			{
+				switch(types[i])
+				{
+					case InputRecorder.KEY_PRESSED: platform.keyPressed(as[i]); break;
+					case InputRecorder.KEY_RELEASED: platform.keyReleased(as[i]); break;
+					case InputRecorder.POINTER_PRESSED: platform.pointerPressed(as[i], bs[i]); break;
+					case InputRecorder.POINTER_RELEASED: platform.pointerReleased(as[i], bs[i]); break;
+					case InputRecorder.POINTER_DRAGGED: platform.pointerDragged(as[i], bs[i]); break;
+				}
+			}
+			catch (Exception e)
+			{
+				System.out.println("Input Replayer: event at frame "+frame+" failed: "+e.getMessage());
+			}
+		}
+	}
+
+	private static int unzigzag(int value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int readVarint(InputStream in, boolean eofAllowed) throws IOException
+	{
+		int value = 0;
+		for(int shift=0; shift<35; shift+=7)
+		{
+			int b = in.read();
+			if(b==-1)
+			{
+				if(eofAllowed && shift==0) { return -1; }
+				throw new EOFException("Truncated input recording");
+			}
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80)==0) { return value; }
+		}
+		throw new IOException("Bad input recording");
+	}
+}
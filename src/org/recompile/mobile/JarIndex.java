@@ -0,0 +1,235 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.Inflater;
+
+/*
+
+	Jar Index
+
+	Memory-maps the jar once and indexes its central directory, so
+	resources can be found without opening a URL connection per read.
+	Stored entries are returned as slices of the mapped file, deflated
+	entries are inflated straight into a buffer of the final size.
+
+*/
+
+public class JarIndex
+{
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private MappedByteBuffer jar;
+
+	private HashMap<String, Entry> entries = new HashMap<String, Entry>(256);
+	private HashMap<String, Entry> lowercase = new HashMap<String, Entry>(256);
+
+	private ArrayList<String> names = new ArrayList<String>(256);
+
+	private class Entry
+	{
+		public int method;
+		public int compressedSize;
+		public int size;
+		public int headerOffset;
+		public int dataOffset = -1;
+	}
+
+	public JarIndex(File file) throws Exception
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			jar = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			jar.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		finally
+		{
+			raf.close(); // the mapping stays valid
+		}
+
+		// Find End of Central Directory, it may be followed by a comment //
+		int end = -1;
+		for(int i=jar.limit()-22; i>=Math.max(0, jar.limit()-22-65535); i--)
+		{
+			if(jar.getInt(i) == END_HEADER) { end = i; break; }
+		}
+		if(end<0) { throw new Exception("Not a jar file: "+file); }
+
+		int count = jar.getShort(end+10) & 0xFFFF;
+		int pos = jar.getInt(end+16);
+
+		byte[] name = new byte[256];
+		for(int i=0; i<count; i++)
+		{
+			if(jar.getInt(pos) != CENTRAL_HEADER) { throw new Exception("Bad central directory: "+file); }
+
+			Entry entry = new Entry();
+			entry.method = jar.getShort(pos+10) & 0xFFFF;
+			entry.compressedSize = jar.getInt(pos+20);
+			entry.size = jar.getInt(pos+24);
+			int nameLength = jar.getShort(pos+28) & 0xFFFF;
+			int extraLength = jar.getShort(pos+30) & 0xFFFF;
+			int commentLength = jar.getShort(pos+32) & 0xFFFF;
+			entry.headerOffset = jar.getInt(pos+42);
+
+			if(nameLength>name.length) { name = new byte[nameLength]; }
+			for(int j=0; j<nameLength; j++) { name[j] = jar.get(pos+46+j); }
+			String key = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+
+			if(!key.endsWith("/"))
+			{
+				entries.put(key, entry);
+				names.add(key);
+				String lower = key.toLowerCase();
+				if(!lowercase.containsKey(lower)) { lowercase.put(lower, entry); }
+			}
+
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+
+	public ArrayList<String> getNames() { return names; }
+
+	public boolean contains(String resource)
+	{
+		return find(resource) != null;
+	}
+
+	/*
+		Returns a read-only view of the entry, or null if it isn't in the jar.
+	*/
+	public ByteBuffer getBuffer(String resource)
+	{
+		Entry entry = find(resource);
+		if(entry==null) { return null; }
+
+		try
+		{
+			if(entry.method==STORED) { return slice(entry).asReadOnlyBuffer(); }
+			return ByteBuffer.wrap(inflate(entry)).asReadOnlyBuffer();
+		}
+		catch (Exception e)
+		{
+			System.out.println("Jar Index: Can't Read "+resource+" ("+e.getMessage()+")");
+		}
+		return null;
+	}
+
+	public byte[] getBytes(String resource)
+	{
+		Entry entry = find(resource);
+		if(entry==null) { return null; }
+
+		try
+		{
+			if(entry.method==STORED)
+			{
+				byte[] out = new byte[entry.size];
+				slice(entry).get(out);
+				return out;
+			}
+			return inflate(entry);
+		}
+		catch (Exception e)
+		{
+			System.out.println("Jar Index: Can't Read "+resource+" ("+e.getMessage()+")");
+		}
+		return null;
+	}
+
+	public InputStream getStream(String resource)
+	{
+		ByteBuffer data = getBuffer(resource);
+		if(data==null) { return null; }
+		return new BufferInputStream(data);
+	}
+
+	private Entry find(String resource)
+	{
+		if(resource.startsWith("/")) { resource = resource.substring(1); }
+		Entry entry = entries.get(resource);
+		if(entry==null)
+		{
+			entry = lowercase.get(resource.toLowerCase());
+		}
+		return entry;
+	}
+
+	private ByteBuffer slice(Entry entry) throws Exception
+	{
+		int pos = entry.headerOffset;
+		if(entry.dataOffset<0)
+		{
+			if(jar.getInt(pos) != LOCAL_HEADER) { throw new Exception("Bad local header"); }
+			int nameLength = jar.getShort(pos+26) & 0xFFFF;
+			int extraLength = jar.getShort(pos+28) & 0xFFFF;
+			entry.dataOffset = pos + 30 + nameLength + extraLength;
+		}
+		ByteBuffer data = jar.duplicate();
+		data.limit(entry.dataOffset+entry.compressedSize);
+		data.position(entry.dataOffset);
+		return data.slice();
+	}
+
+	private byte[] inflate(Entry entry) throws Exception
+	{
+		if(entry.method!=DEFLATED) { throw new Exception("Unsupported compression "+entry.method); }
+
+		byte[] input = new byte[entry.compressedSize];
+		slice(entry).get(input);
+
+		byte[] output = new byte[entry.size];
+		Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setInput(input);
+			int count = 0;
+			while(count<output.length && !inflater.finished())
+			{
+				int n = inflater.inflate(output, count, output.length-count);
+				if(n==0 && (inflater.needsInput() || inflater.needsDictionary())) { break; }
+				count += n;
+			}
+			if(count<output.length) { throw new IOException("Truncated entry, inflated "+count+" of "+output.length+" bytes"); }
+		}
+		finally
+		{
+			inflater.end();
+		}
+		return output;
+	}
+}
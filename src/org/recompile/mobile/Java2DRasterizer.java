@@ -0,0 +1,176 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+
+/*
+
+	Java2D Rasterizer
+
+	Draws with the Graphics2D of the image. The color, translation and
+	clip PlatformGraphics sets are only kept here, and passed on to the
+	Graphics2D by graphics() the next time something is drawn after
+	they changed. Anything else drawing with the Graphics2D gets it from
+	graphics() too.
+
+*/
+
+public class Java2DRasterizer implements Rasterizer
+{
+	private Graphics2D gc;
+
+	private int[] triangleX = new int[3];
+	private int[] triangleY = new int[3];
+
+	// Wanted state, the clip is in canvas coordinates //
+	private int color;
+	private int translateX;
+	private int translateY;
+	private int clipX;
+	private int clipY;
+	private int clipWidth;
+	private int clipHeight;
+	private boolean colorChanged = true;
+	private boolean clipChanged = true;
+
+	// Translation gc has //
+	private int gcTranslateX = 0;
+	private int gcTranslateY = 0;
+
+	// Recently used colors, so switching between a few doesn't allocate //
+	private Color[] colors = new Color[64];
+
+	public Java2DRasterizer(Graphics2D gc)
+	{
+		this.gc = gc;
+	}
+
+	public void setColor(int argb)
+	{
+		if(argb==color) { return; }
+		color = argb;
+		colorChanged = true;
+	}
+
+	public void setTranslate(int x, int y)
+	{
+		translateX = x;
+		translateY = y;
+	}
+
+	public void setClip(int x, int y, int width, int height)
+	{
+		if(x==clipX && y==clipY && width==clipWidth && height==clipHeight) { return; }
+		clipX = x;
+		clipY = y;
+		clipWidth = width;
+		clipHeight = height;
+		clipChanged = true;
+	}
+
+	/*
+		The Graphics2D, brought up to date.
+	*/
+	public Graphics2D graphics()
+	{
+		if(translateX!=gcTranslateX || translateY!=gcTranslateY)
+		{
+			gc.translate(translateX-gcTranslateX, translateY-gcTranslateY);
+			gcTranslateX = translateX;
+			gcTranslateY = translateY;
+			clipChanged = true;
+		}
+		if(clipChanged)
+		{
+			// gc clips in the translated space //
+			gc.setClip(clipX-translateX, clipY-translateY, Math.max(0, clipWidth), Math.max(0, clipHeight));
+			clipChanged = false;
+		}
+		if(colorChanged)
+		{
+			int slot = (color*0x9E3779B1)>>>26;
+			Color awtColor = colors[slot];
+			if(awtColor==null || awtColor.getRGB()!=color)
+			{
+				awtColor = new Color(color, true);
+				colors[slot] = awtColor;
+			}
+			gc.setColor(awtColor);
+			colorChanged = false;
+		}
+		return gc;
+	}
+
+	public void clearRect(int x, int y, int width, int height)
+	{
+		graphics().clearRect(x, y, width, height);
+	}
+
+	public void fillRect(int x, int y, int width, int height)
+	{
+		graphics().fillRect(x, y, width, height);
+	}
+
+	public void drawRect(int x, int y, int width, int height)
+	{
+		graphics().drawRect(x, y, width, height);
+	}
+
+	public void drawLine(int x1, int y1, int x2, int y2)
+	{
+		graphics().drawLine(x1, y1, x2, y2);
+	}
+
+	public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight)
+	{
+		graphics().fillRoundRect(x, y, width, height, arcWidth, arcHeight);
+	}
+
+	public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight)
+	{
+		graphics().drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+	}
+
+	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle)
+	{
+		graphics().fillArc(x, y, width, height, startAngle, arcAngle);
+	}
+
+	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle)
+	{
+		graphics().drawArc(x, y, width, height, startAngle, arcAngle);
+	}
+
+	public void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3)
+	{
+		triangleX[0] = x1; triangleX[1] = x2; triangleX[2] = x3;
+		triangleY[0] = y1; triangleY[1] = y2; triangleY[2] = y3;
+		graphics().fillPolygon(triangleX, triangleY, 3);
+	}
+
+	public void fillPolygon(int[] x, int[] y, int nPoints)
+	{
+		graphics().fillPolygon(x, y, nPoints);
+	}
+
+	public void drawPolygon(int[] x, int[] y, int nPoints)
+	{
+		graphics().drawPolygon(x, y, nPoints);
+	}
+}
@@ -17,6 +17,7 @@
 package org.recompile.mobile;
 
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -27,6 +28,8 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 
+import java.nio.ByteBuffer;
+
 import java.lang.ClassLoader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -36,6 +39,11 @@ import java.lang.reflect.Modifier;
 
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
@@ -52,6 +60,9 @@ import javax.microedition.midlet.MIDletStateChangeException;
 
 public class MIDletLoader extends URLClassLoader
 {
+	// Bump whenever ASMVisitor changes so cached classes are rebuilt //
+	public static final int INSTRUMENT_VERSION = 3;
+
 	public String name;
 	public String icon;
 	private String className;
@@ -63,6 +74,19 @@ public class MIDletLoader extends URLClassLoader
 
 	private HashMap<String, String> properties = new HashMap<String, String>(32);
 
+	public MobilePlatform platform;
+
+	public ClassCache classCache;
+
+	private JarIndex jarIndex;
+
+	public ResourceCache resourceCache;
+
+	private ConcurrentHashMap<String, byte[]> preinstrumented;
+
+	// Whether a class (internal name) is Thread or extends it //
+	private ConcurrentHashMap<String, Boolean> threadClasses = new ConcurrentHashMap<String, Boolean>();
+
 
 	public MIDletLoader(URL urls[])
 	{
@@ -81,6 +105,18 @@ public class MIDletLoader extends URLClassLoader
 			System.out.println("Can't add CLDC System Properties");
 		}
 
+		try
+		{
+			if(urls[0].getProtocol().equals("file"))
+			{
+				jarIndex = new JarIndex(new File(urls[0].toURI()));
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Can't Index Jar: "+e.getMessage());
+		}
+
 		try
 		{
 			loadManifest();
@@ -111,7 +147,6 @@ public class MIDletLoader extends URLClassLoader
 			constructor = mainClass.getConstructor();
 			constructor.setAccessible(true);
 
-			MIDlet.initAppProperties(properties);
 			mainInst = (MIDlet)constructor.newInstance();
 		}
 		catch (Exception e)
@@ -156,8 +191,21 @@ public class MIDletLoader extends URLClassLoader
 		}
 	}
 
-	private void loadManifest()
+	public HashMap<String, String> getAppProperties()
 	{
+		return properties;
+	}
+
+	private InputStream openManifest() throws IOException
+	{
+		if(jarIndex!=null)
+		{
+			// Index lookups fall back to case-insensitive matches //
+			InputStream stream = jarIndex.getStream("META-INF/MANIFEST.MF");
+			if(stream==null) { stream = jarIndex.getStream("META-INF/manifest.fm"); }
+			return stream;
+		}
+
 		String resource = "META-INF/MANIFEST.MF";
 		URL url = findResource(resource);
 		if(url==null)
@@ -174,12 +222,16 @@ public class MIDletLoader extends URLClassLoader
 					url = findResource(resource);
 					if(url==null)
 					{
-						return;
+						return null;
 					}	
 				}	
 			}
 		}
+		return url.openStream();
+	}
 
+	private void loadManifest()
+	{
 		String line;
 		String[] parts;
 		int split;
@@ -187,7 +239,11 @@ public class MIDletLoader extends URLClassLoader
 		String value;
 		try
 		{
-			InputStream is = url.openStream();
+			InputStream is = openManifest();
+			if(is==null)
+			{
+				return;
+			}
 			BufferedReader br = new BufferedReader(new InputStreamReader(is));
 			
 			ArrayList<String> lines = new ArrayList<String>();
@@ -240,24 +296,15 @@ public class MIDletLoader extends URLClassLoader
 
 	public InputStream getResourceAsStream(String resource)
 	{
-		URL url;
 		//System.out.println("Loading Resource: " + resource);
 
-		if(resource.startsWith("/"))
-		{
-			resource = resource.substring(1);
-		}
-
-		try
-		{
-			url = findResource(resource);
-			return url.openStream();
-		}
-		catch (Exception e)
+		ByteBuffer data = getResourceBuffer(resource);
+		if(data==null)
 		{
 			System.out.println(resource + " Not Found");
 			return super.getResourceAsStream(resource);
 		}
+		return new BufferInputStream(data);
 	}
 
 
@@ -279,6 +326,64 @@ public class MIDletLoader extends URLClassLoader
 		}
 	}
 
+	/*
+		Every resource read goes through here, so the jar index and the
+		resource cache are shared by all the getMIDletResource variants.
+		The returned buffer is a read-only view.
+	*/
+	public ByteBuffer getResourceBuffer(String resource)
+	{
+		if(resource.startsWith("/"))
+		{
+			resource = resource.substring(1);
+		}
+
+		ByteBuffer data = null;
+		if(resourceCache!=null)
+		{
+			data = resourceCache.get(resource);
+			if(data!=null) { return data; }
+		}
+
+		if(jarIndex!=null)
+		{
+			data = jarIndex.getBuffer(resource);
+		}
+		else
+		{
+			try
+			{
+				URL url = findResource(resource);
+				if(url!=null)
+				{
+					data = ByteBuffer.wrap(readAll(url.openStream())).asReadOnlyBuffer();
+				}
+			}
+			catch (Exception e) { }
+		}
+
+		if(data!=null && resourceCache!=null)
+		{
+			resourceCache.put(resource, data);
+			data = data.duplicate();
+		}
+		return data;
+	}
+
+	private byte[] readAll(InputStream stream) throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		int count=0;
+		byte[] data = new byte[4096];
+		while (count!=-1)
+		{
+			count = stream.read(data);
+			if(count!=-1) { buffer.write(data, 0, count); }
+		}
+		stream.close();
+		return buffer.toByteArray();
+	}
+
 	/*
 		********  loadClass Modifies Methods with ObjectWeb ASM  ********
 		Replaces java.lang.Class.getResourceAsStream calls with calls
@@ -290,52 +395,25 @@ public class MIDletLoader extends URLClassLoader
 	{
 		//System.out.println("Get Resource: "+resource);
 
-		URL url = getResource(resource);
-
-		// Read all bytes, return ByteArrayInputStream //
-		try
-		{
-			InputStream stream = url.openStream();
-
-			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-			int count=0;
-			byte[] data = new byte[4096];
-			while (count!=-1)
-			{
-				count = stream.read(data);
-				if(count!=-1) { buffer.write(data, 0, count); }
-			}
-			return new ByteArrayInputStream(buffer.toByteArray());
-		}
-		catch (Exception e)
+		ByteBuffer data = getResourceBuffer(resource);
+		if(data==null)
 		{
 			return super.getResourceAsStream(resource);
 		}
+		return new BufferInputStream(data);
 	}
 
 	public byte[] getMIDletResourceAsByteArray(String resource)
 	{
-		URL url = getResource(resource);
-
-		try
-		{
-			InputStream stream = url.openStream();
-
-			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-			int count=0;
-			byte[] data = new byte[4096];
-			while (count!=-1)
-			{
-				count = stream.read(data);
-				if(count!=-1) { buffer.write(data, 0, count); }
-			}
-			return buffer.toByteArray();
-		}
-		catch (Exception e)
+		ByteBuffer data = getResourceBuffer(resource);
+		if(data==null)
 		{
 			System.out.println(resource + " Not Found");
 			return new byte[0];
 		}
+		byte[] out = new byte[data.remaining()];
+		data.get(out);
+		return out;
 	}
 
 
@@ -359,9 +437,28 @@ public class MIDletLoader extends URLClassLoader
 		try
 		{
 			//System.out.println("Instrumenting Class "+name);
-			resource = name.replace(".", "/") + ".class";
-			stream = super.getResourceAsStream(resource);
-			code = instrument(stream);
+			code = null;
+			if(preinstrumented!=null)
+			{
+				code = preinstrumented.remove(name);
+			}
+			if(code==null && classCache!=null)
+			{
+				code = classCache.get(name);
+			}
+			if(code==null)
+			{
+				resource = name.replace(".", "/") + ".class";
+				if(jarIndex!=null && jarIndex.contains(resource))
+				{
+					code = instrument(name, new ClassReader(jarIndex.getBytes(resource)));
+				}
+				else
+				{
+					stream = super.getResourceAsStream(resource);
+					code = instrument(name, new ClassReader(stream));
+				}
+			}
 			return defineClass(name, code, 0, code.length);
 		}
 		catch (Exception e)
@@ -379,44 +476,30 @@ public class MIDletLoader extends URLClassLoader
 
 	public InputStream getMIDletResourceAsSiemensStream(String resource)
 	{
-		URL url = getResource(resource);
-
-		try
-		{
-			InputStream stream = url.openStream();
-
-			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-			int count=0;
-			byte[] data = new byte[4096];
-			while (count!=-1)
-			{
-				count = stream.read(data);
-				if(count!=-1) { buffer.write(data, 0, count); }
-			}
-			return new SiemensInputStream(buffer.toByteArray());
-		}
-		catch (Exception e)
+		ByteBuffer data = getResourceBuffer(resource);
+		if(data==null)
 		{
 			return super.getResourceAsStream(resource);
 		}
+		return new SiemensInputStream(new BufferInputStream(data));
 	}
 
 	private class SiemensInputStream extends InputStream
 	{
-		private ByteArrayInputStream iostream;
+		private InputStream iostream;
 
-		public SiemensInputStream(byte[] data)
+		public SiemensInputStream(InputStream stream)
 		{
-			iostream = new ByteArrayInputStream(data);
+			iostream = stream;
 		}
 
-		public int read()
+		public int read() throws IOException
 		{
 			int t = iostream.read();
 			if (t == -1) { return 0; }
 			return t;
 		}
-		public int read(byte[] b, int off, int len)
+		public int read(byte[] b, int off, int len) throws IOException
 		{
 			int t = iostream.read(b, off, len);
 			if (t == -1) { return 0; }
@@ -425,19 +508,185 @@ public class MIDletLoader extends URLClassLoader
 	}
 
 
+/* **************************************************************
+ * Eager Instrumentation
+ * ************************************************************** */
+
+	/*
+		Instruments every class in the jar up front on a fork-join pool,
+		so loadClass only has to look the result up.
+	*/
+	public void preInstrument(URL jar)
+	{
+		long start = System.nanoTime();
+
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<byte[]> classes = new ArrayList<byte[]>();
+		try
+		{
+			if(jarIndex!=null)
+			{
+				for (String resource : jarIndex.getNames())
+				{
+					if(!resource.endsWith(".class")) { continue; }
+					names.add(resource.substring(0, resource.length()-6).replace("/", "."));
+					classes.add(jarIndex.getBytes(resource));
+				}
+			}
+			else
+			{
+				ZipInputStream zip = new ZipInputStream(jar.openStream());
+				ZipEntry entry;
+				while ((entry = zip.getNextEntry()) != null)
+				{
+					String resource = entry.getName();
+					if(entry.isDirectory() || !resource.endsWith(".class")) { continue; }
+
+					ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+					int count;
+					byte[] data = new byte[4096];
+					while ((count = zip.read(data)) != -1)
+					{
+						buffer.write(data, 0, count);
+					}
+					names.add(resource.substring(0, resource.length()-6).replace("/", "."));
+					classes.add(buffer.toByteArray());
+				}
+				zip.close();
+			}
+		}
+		catch (Exception e)
+		{
+			System.out.println("Can't Pre-Instrument Jar: "+e.getMessage());
+			return;
+		}
+
+		preinstrumented = new ConcurrentHashMap<String, byte[]>(names.size()*2);
+		ForkJoinPool pool = new ForkJoinPool();
+		pool.invoke(new InstrumentTask(names, classes, 0, names.size()));
+		pool.shutdown();
+
+		Mobile.log("Pre-Instrumented "+preinstrumented.size()+" classes in "+((System.nanoTime()-start)/1000000)+"ms");
+	}
+
+	private class InstrumentTask extends RecursiveAction
+	{
+		private static final int THRESHOLD = 8;
+
+		private ArrayList<String> names;
+		private ArrayList<byte[]> classes;
+		private int from;
+		private int to;
+
+		public InstrumentTask(ArrayList<String> names, ArrayList<byte[]> classes, int from, int to)
+		{
+			this.names = names;
+			this.classes = classes;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if(to-from > THRESHOLD)
+			{
+				int mid = (from+to) >>> 1;
+				invokeAll(new InstrumentTask(names, classes, from, mid), new InstrumentTask(names, classes, mid, to));
+				return;
+			}
+			for(int i=from; i<to; i++)
+			{
+				String name = names.get(i);
+				try
+				{
+					byte[] code = null;
+					if(classCache!=null)
+					{
+						code = classCache.get(name);
+					}
+					if(code==null)
+					{
+						code = instrument(name, new ClassReader(classes.get(i)));
+					}
+					preinstrumented.put(name, code);
+				}
+				catch (Exception e)
+				{
+					System.out.println("Error Pre-Instrumenting Class "+name);
+				}
+			}
+		}
+	}
+
+
 /* ************************************************************** 
  * Instrumentation
  * ************************************************************** */
 
-	private byte[] instrument(InputStream stream) throws Exception
+	private byte[] instrument(String name, ClassReader reader) throws Exception
+	{
+		long start = System.nanoTime();
+		byte[] code = instrument(reader);
+		if(classCache!=null)
+		{
+			classCache.put(name, code, System.nanoTime()-start);
+		}
+		return code;
+	}
+
+	private byte[] instrument(ClassReader reader) throws Exception
 	{
-		ClassReader reader = new ClassReader(stream);
 		ClassWriter writer = new ClassWriter(0);
 		ClassVisitor visitor = new ASMVisitor(writer);
 		reader.accept(visitor, 0);
 		return writer.toByteArray();
 	}
 
+	/*
+		A static sleep(J)V called through a Thread subclass, e.g. sleep(30)
+		inside "class GameThread extends Thread", is Thread.sleep too.
+	*/
+	private boolean isThread(String owner)
+	{
+		Boolean known = threadClasses.get(owner);
+		if(known!=null) { return known; }
+
+		boolean result = false;
+		try
+		{
+			if(owner.equals("java/lang/Thread"))
+			{
+				result = true;
+			}
+			else if(owner.startsWith("java/"))
+			{
+				result = Thread.class.isAssignableFrom(Class.forName(owner.replace('/', '.'), false, null));
+			}
+			else
+			{
+				String resource = owner + ".class";
+				ClassReader reader = null;
+				if(jarIndex!=null && jarIndex.contains(resource))
+				{
+					reader = new ClassReader(jarIndex.getBytes(resource));
+				}
+				else
+				{
+					InputStream stream = super.getResourceAsStream(resource);
+					if(stream!=null) { reader = new ClassReader(stream); }
+				}
+				if(reader!=null && reader.getSuperName()!=null)
+				{
+					result = isThread(reader.getSuperName());
+				}
+			}
+		}
+		catch (Exception e) { }
+
+		threadClasses.put(owner, result);
+		return result;
+	}
+
 	private class ASMVisitor extends ClassAdapter
 	{
 		public ASMVisitor(ClassVisitor visitor)
@@ -468,6 +717,19 @@ public class MIDletLoader extends URLClassLoader
 				{
 					mv.visitMethodInsn(INVOKESTATIC, "org/recompile/mobile/Mobile", name, "(Ljava/lang/Class;Ljava/lang/String;)Ljava/io/InputStream;");
 				}
+				else if(opcode == INVOKESTATIC && name.equals("currentTimeMillis") && owner.equals("java/lang/System"))
+				{
+					mv.visitMethodInsn(INVOKESTATIC, "org/recompile/mobile/Mobile", name, desc);
+				}
+				else if(opcode == INVOKESTATIC && name.equals("sleep") && desc.equals("(J)V") && isThread(owner))
+				{
+					mv.visitMethodInsn(INVOKESTATIC, "org/recompile/mobile/Mobile", name, desc);
+				}
+				else if(opcode == INVOKEVIRTUAL && name.equals("wait") && desc.equals("(J)V"))
+				{
+					// Object.wait is final, so any owner resolves to it //
+					mv.visitMethodInsn(INVOKESTATIC, "org/recompile/mobile/Mobile", name, "(Ljava/lang/Object;J)V");
+				}
 				else
 				{
 					mv.visitMethodInsn(opcode, owner, name, desc);
@@ -28,26 +28,25 @@ import javax.microedition.m3g.Graphics3D;
 
 	Provides MobilePlatform access to mobile app
 
+	Each MobilePlatform is found through the MIDletLoader that is the
+	context class loader of the calling thread. MobilePlatform.runJar
+	sets it, and threads started by the MIDlet inherit it, so several
+	platforms can run side by side in one JVM. Frontend threads (AWT,
+	libretro and SDL input) call in through MobilePlatform, which binds
+	them to itself for the call. Anything else gets the platform set
+	with setPlatform.
+
 */
 
 public class Mobile
 {
 	private static MobilePlatform platform;
 
-	private static Display display;
-
-	private static Graphics3D graphics3d;
+	// Platforms bound to frontend threads //
+	private static ThreadLocal<MobilePlatform> bound = new ThreadLocal<MobilePlatform>();
 
 	public static boolean quiet = false; 
 
-	public static boolean nokia = false;
-
-	public static boolean siemens = false;
-
-	public static boolean motorola = false;
-
-	public static boolean sound = true;
-
 	//Standard keycodes
 	public static final int KEY_NUM0  = Canvas.KEY_NUM0;  // 48
 	public static final int KEY_NUM1  = Canvas.KEY_NUM1;  // 49
@@ -102,6 +101,14 @@ public class Mobile
 
 	public static MobilePlatform getPlatform()
 	{
+		MobilePlatform current = bound.get();
+		if(current!=null) { return current; }
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if(loader instanceof MIDletLoader)
+		{
+			MobilePlatform p = ((MIDletLoader)loader).platform;
+			if(p!=null) { return p; }
+		}
 		return platform;
 	}
 
@@ -110,34 +117,67 @@ public class Mobile
 		platform = p;
 	}
 
+	/*
+		Binds the calling thread to p, returns what it was bound to so
+		that can be bound back (null unbinds).
+	*/
+	public static MobilePlatform bind(MobilePlatform p)
+	{
+		MobilePlatform previous = bound.get();
+		if(p==null) { bound.remove(); }
+		else { bound.set(p); }
+		return previous;
+	}
+
 	public static Display getDisplay()
 	{
-		return display;
+		return getPlatform().display;
 	}
 
 	public static void setDisplay(Display d)
 	{
-		display = d;
+		getPlatform().display = d;
 	}
 
 	public static Graphics3D getGraphics3D()
 	{
-		return graphics3d;
+		return getPlatform().graphics3d;
 	}
 
 	public static void setGraphics3D(Graphics3D g)
 	{
-		graphics3d = g;
+		getPlatform().graphics3d = g;
 	}
 
 	public static InputStream getResourceAsStream(Class c, String resource)
 	{
-		return platform.loader.getMIDletResourceAsStream(resource);
+		if(c.getClassLoader() instanceof MIDletLoader)
+		{
+			return ((MIDletLoader)c.getClassLoader()).getMIDletResourceAsStream(resource);
+		}
+		return getPlatform().loader.getMIDletResourceAsStream(resource);
 	}
 
 	public static InputStream getMIDletResourceAsStream(String resource)
 	{
-		return platform.loader.getMIDletResourceAsStream(resource);
+		return getPlatform().loader.getMIDletResourceAsStream(resource);
+	}
+
+	// Timing calls redirected by MIDletLoader instrumentation //
+
+	public static long currentTimeMillis()
+	{
+		return getPlatform().clock.currentTimeMillis();
+	}
+
+	public static void sleep(long millis) throws InterruptedException
+	{
+		getPlatform().clock.sleep(millis);
+	}
+
+	public static void wait(Object monitor, long millis) throws InterruptedException
+	{
+		getPlatform().clock.wait(monitor, millis);
 	}
 
 	public static void log(String text)
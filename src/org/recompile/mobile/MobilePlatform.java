@@ -28,6 +28,7 @@ import javax.microedition.lcdui.Image;
 import javax.microedition.m3g.Graphics3D;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 
 /*
@@ -39,28 +40,78 @@ import java.awt.image.BufferedImage;
 public class MobilePlatform
 {
 
-	private PlatformImage lcd;
-	private PlatformGraphics gc;
+	// LCD pages, flushes go to the page after the last completed one //
+	private PlatformImage[] pages = new PlatformImage[3];
+	private volatile int shown = 0;
+	// Frontends reading a page from their own thread, flips skip those pages //
+	private int[] readers = new int[3];
 	public int lcdWidth;
+
+	// Area changed by each flip, for frontends that copy only what changed //
+	public static final int DAMAGE_HISTORY = 8;
+	private DirtyRegion[] damage = new DirtyRegion[DAMAGE_HISTORY];
+	private int[] pageFlips = new int[3];
+	private int flips = 0;
+	private PlatformImage lastSource;
 	public int lcdHeight;
 
 	public MIDletLoader loader;
 
+	public Display display;
+
+	public Graphics3D graphics3d;
+
+	public boolean nokia = false;
+
+	public boolean siemens = false;
+
+	public boolean motorola = false;
+
+	public boolean sound = true;
+
 	public Runnable painter;
 
 	public String dataPath = "";
 
+	public boolean useClassCache = true;
+
+	public boolean preInstrument = false;
+
+	// Draw primitives with SoftwareRasterizer instead of Java2D //
+	public boolean softwareRaster = false;
+
+	public long resourceCacheSize = 4*1024*1024;
+
+	public long transformCacheSize = 2*1024*1024;
+
+	public TransformCache transformCache;
+
 	public int keyState = 0;
 
+	public VirtualClock clock = new VirtualClock();
+
+	// Frames shown so far, input recording and replay are keyed to it //
+	public volatile int frame = 0;
+
+	public InputRecorder recorder;
+
+	public InputReplayer replayer;
+
+	private boolean replaying = false;
+
 	public MobilePlatform(int width, int height)
 	{
 		lcdWidth = width;
 		lcdHeight = height;
 
-		lcd = new PlatformImage(width, height);
-		gc = lcd.getGraphics();
+		for(int i=0; i<DAMAGE_HISTORY; i++)
+		{
+			damage[i] = new DirtyRegion();
+		}
+
+		createPages();
 
-		Mobile.setGraphics3D(new Graphics3D());
+		graphics3d = new Graphics3D();
 
 		painter = new Runnable()
 		{
@@ -76,13 +127,69 @@ public class MobilePlatform
 		lcdWidth = width;
 		lcdHeight = height;
 
-		lcd = new PlatformImage(width, height);
-		gc = lcd.getGraphics();
+		createPages();
 	}
 
+	/*
+		Returns the most recently completed LCD page.
+	*/
 	public BufferedImage getLCD()
 	{
-		return lcd.getCanvas();
+		return pages[shown].getCanvas();
+	}
+
+	/*
+		Like getLCD(), but flips won't draw into the returned page until
+		releaseLCD() is called with it. For frontends that read the LCD
+		from a thread other than the one flushing it.
+	*/
+	public synchronized BufferedImage pinLCD()
+	{
+		readers[shown]++;
+		return pages[shown].getCanvas();
+	}
+
+	public synchronized void releaseLCD(BufferedImage lcd)
+	{
+		for(int i=0; i<pages.length; i++)
+		{
+			if(pages[i].getCanvas()==lcd && readers[i]>0) { readers[i]--; }
+		}
+	}
+
+	private synchronized void createPages()
+	{
+		flips++;
+		damage[flips % DAMAGE_HISTORY].clear();
+		damage[flips % DAMAGE_HISTORY].add(0, 0, lcdWidth, lcdHeight);
+		for(int i=0; i<pages.length; i++)
+		{
+			pages[i] = new PlatformImage(lcdWidth, lcdHeight);
+			pageFlips[i] = flips;
+			readers[i] = 0;
+		}
+		shown = 0;
+		lastSource = null;
+	}
+
+	/*
+		Adds the area changed since flip number 'since' to out, and returns
+		the current flip number to pass next time. If the history does not
+		reach back that far, or since is -1, the whole LCD is added. Call before getLCD(),
+		a flip in between is then reported by the next call.
+	*/
+	public synchronized int getDamage(int since, DirtyRegion out)
+	{
+		if(since<0 || since>flips || flips-since>=DAMAGE_HISTORY)
+		{
+			out.add(0, 0, lcdWidth, lcdHeight);
+			return flips;
+		}
+		for(int f=since+1; f<=flips; f++)
+		{
+			out.add(damage[f % DAMAGE_HISTORY]);
+		}
+		return flips;
 	}
 
 	public void setPainter(Runnable r)
@@ -90,31 +197,150 @@ public class MobilePlatform
 		painter = r;
 	}
 
+	/*
+		The caches are created by loadJar(), later calls only resize them.
+	*/
+	public void setResourceCacheSize(long bytes)
+	{
+		resourceCacheSize = bytes;
+		if(loader!=null && loader.resourceCache!=null) { loader.resourceCache.setBudget(bytes); }
+	}
+
+	public void setTransformCacheSize(long bytes)
+	{
+		transformCacheSize = bytes;
+		if(transformCache!=null) { transformCache.setBudget(bytes); }
+	}
+
+/*
+	******** Input Recording ********
+*/
+
+	public boolean startRecording(String file)
+	{
+		try
+		{
+			final InputRecorder log = new InputRecorder(file);
+			recorder = log;
+			Runtime.getRuntime().addShutdownHook(new Thread()
+			{
+				public void run() { log.close(); }
+			});
+			return true;
+		}
+		catch (Exception e)
+		{
+			System.out.println("Can't Record Input: "+e.getMessage());
+			return false;
+		}
+	}
+
+	public boolean startReplay(String file)
+	{
+		try
+		{
+			replayer = new InputReplayer(file);
+			return true;
+		}
+		catch (Exception e)
+		{
+			System.out.println("Can't Replay Input: "+e.getMessage());
+			return false;
+		}
+	}
+
+	/*
+		Sends recorded input that belongs to the frame just shown. Events
+		that call repaint re-enter here, so nested calls are skipped.
+	*/
+	private void replayInput()
+	{
+		if(replayer==null || replaying) { return; }
+		replaying = true;
+		try
+		{
+			replayer.dispatch(this, frame);
+		}
+		finally
+		{
+			replaying = false;
+		}
+	}
+
+	/*
+		Input from the frontends. The calling thread is bound to this
+		platform while the MIDlet handles it.
+	*/
 	public void keyPressed(int keycode)
 	{
-		updateKeyState(keycode, 1);
-		Mobile.getDisplay().getCurrent().keyPressed(keycode);
+		MobilePlatform previous = Mobile.bind(this);
+		try
+		{
+			if(recorder!=null) { recorder.record(frame, InputRecorder.KEY_PRESSED, keycode, 0); }
+			updateKeyState(keycode, 1);
+			display.getCurrent().keyPressed(keycode);
+		}
+		finally
+		{
+			Mobile.bind(previous);
+		}
 	}
 
 	public void keyReleased(int keycode)
 	{
-		updateKeyState(keycode, 0);
-		Mobile.getDisplay().getCurrent().keyReleased(keycode);
+		MobilePlatform previous = Mobile.bind(this);
+		try
+		{
+			if(recorder!=null) { recorder.record(frame, InputRecorder.KEY_RELEASED, keycode, 0); }
+			updateKeyState(keycode, 0);
+			display.getCurrent().keyReleased(keycode);
+		}
+		finally
+		{
+			Mobile.bind(previous);
+		}
 	}
 
 	public void pointerDragged(int x, int y)
 	{
-		Mobile.getDisplay().getCurrent().pointerDragged(x, y);
+		MobilePlatform previous = Mobile.bind(this);
+		try
+		{
+			if(recorder!=null) { recorder.record(frame, InputRecorder.POINTER_DRAGGED, x, y); }
+			display.getCurrent().pointerDragged(x, y);
+		}
+		finally
+		{
+			Mobile.bind(previous);
+		}
 	}
 
 	public void pointerPressed(int x, int y)
 	{
-		Mobile.getDisplay().getCurrent().pointerPressed(x, y);
+		MobilePlatform previous = Mobile.bind(this);
+		try
+		{
+			if(recorder!=null) { recorder.record(frame, InputRecorder.POINTER_PRESSED, x, y); }
+			display.getCurrent().pointerPressed(x, y);
+		}
+		finally
+		{
+			Mobile.bind(previous);
+		}
 	}
 
 	public void pointerReleased(int x, int y)
 	{
-		Mobile.getDisplay().getCurrent().pointerReleased(x, y);
+		MobilePlatform previous = Mobile.bind(this);
+		try
+		{
+			if(recorder!=null) { recorder.record(frame, InputRecorder.POINTER_RELEASED, x, y); }
+			display.getCurrent().pointerReleased(x, y);
+		}
+		finally
+		{
+			Mobile.bind(previous);
+		}
 	}
 
 	private void updateKeyState(int key, int val)
@@ -150,7 +376,49 @@ public class MobilePlatform
 		try
 		{
 			URL jar = new URL(jarurl);
+			if(System.getProperty("freej2me.record")!=null) { startRecording(System.getProperty("freej2me.record")); }
+			if(System.getProperty("freej2me.replay")!=null) { startReplay(System.getProperty("freej2me.replay")); }
 			loader = new MIDletLoader(new URL[]{jar});
+			loader.platform = this;
+			// Only cache into a real data directory, never the working directory //
+			if(useClassCache && dataPath.length()>0)
+			{
+				try
+				{
+					final ClassCache cache = new ClassCache(jar, dataPath, MIDletLoader.INSTRUMENT_VERSION);
+					loader.classCache = cache;
+					Runtime.getRuntime().addShutdownHook(new Thread()
+					{
+						public void run() { cache.printStats(); }
+					});
+				}
+				catch (Exception e)
+				{
+					System.out.println("Class Cache Disabled: "+e.getMessage());
+				}
+			}
+			if(resourceCacheSize>0)
+			{
+				final ResourceCache cache = new ResourceCache(resourceCacheSize);
+				loader.resourceCache = cache;
+				Runtime.getRuntime().addShutdownHook(new Thread()
+				{
+					public void run() { cache.printStats(); }
+				});
+			}
+			if(transformCacheSize>0)
+			{
+				final TransformCache cache = new TransformCache(transformCacheSize);
+				transformCache = cache;
+				Runtime.getRuntime().addShutdownHook(new Thread()
+				{
+					public void run() { cache.printStats(); }
+				});
+			}
+			if(preInstrument)
+			{
+				loader.preInstrument(jar);
+			}
 			return true;
 		}
 		catch (Exception e)
@@ -162,10 +430,15 @@ public class MobilePlatform
 
 	}
 
+	/*
+		Runs the MIDlet on the calling thread. The thread, and every thread
+		the MIDlet starts from it, is bound to this platform.
+	*/
 	public void runJar()
 	{
 		try
 		{
+			Thread.currentThread().setContextClassLoader(loader);
 			loader.start();
 		}
 		catch (Exception e)
@@ -181,20 +454,110 @@ public class MobilePlatform
 
 	public void flushGraphics(Image img, int x, int y, int width, int height)
 	{
-		gc.flushGraphics(img, x, y, width, height);
+		flipLCD(img, x, y, width, height);
+		frame++;
 
 		painter.run();
 
+		replayInput();
+
 		//System.gc();
 	}
 
 	public void repaint(Image img, int x, int y, int width, int height)
 	{
-		gc.flushGraphics(img, x, y, width, height);
+		flipLCD(img, x, y, width, height);
+		frame++;
 
 		painter.run();
 
+		replayInput();
+
 		//System.gc();
 	}
 
+	/*
+		Copies the flushed image into the next LCD page and makes that page
+		current. Only the area drawn since the last flush is copied, plus
+		whatever the page missed while the other pages were shown. A new
+		source image, or a page too far behind, falls back to full copies.
+		Pinned pages are never written. With both other pages pinned the
+		shown page is updated in place, with all three pinned the flip is
+		skipped and the source's dirty area carries over to the next one.
+	*/
+	private synchronized void flipLCD(Image img, int x, int y, int width, int height)
+	{
+		int next = -1;
+		for(int i=1; i<=pages.length; i++)
+		{
+			int page = (shown+i) % pages.length;
+			if(readers[page]==0) { next = page; break; }
+		}
+		if(next<0) { return; }
+
+		PlatformImage image = img.platformImage;
+		BufferedImage source = image.getCanvas();
+
+		int[] from = ((DataBufferInt)source.getRaster().getDataBuffer()).getData();
+		int[] to = ((DataBufferInt)pages[next].getCanvas().getRaster().getDataBuffer()).getData();
+		int[] current = ((DataBufferInt)pages[shown].getCanvas().getRaster().getDataBuffer()).getData();
+		int stride = source.getWidth();
+
+		int left = Math.max(0, x);
+		int top = Math.max(0, y);
+		int right = Math.min(Math.min(x+width, lcdWidth), stride);
+		int bottom = Math.min(Math.min(y+height, lcdHeight), source.getHeight());
+		boolean full = left==0 && top==0 && right==lcdWidth && bottom==lcdHeight;
+
+		DirtyRegion region = damage[(flips+1) % DAMAGE_HISTORY];
+		region.clear();
+		synchronized(image.dirty)
+		{
+			if(image==lastSource)
+			{
+				region.add(image.dirty);
+				region.clip(left, top, right-left, bottom-top);
+			}
+			else
+			{
+				region.add(left, top, right-left, bottom-top);
+			}
+			if(full) { image.dirty.clear(); }
+		}
+		lastSource = image;
+
+		// Bring the page up to date with the current one //
+		if(flips-pageFlips[next]>=DAMAGE_HISTORY-1)
+		{
+			System.arraycopy(current, 0, to, 0, lcdWidth*lcdHeight);
+		}
+		else
+		{
+			for(int f=pageFlips[next]+1; f<=flips; f++)
+			{
+				copyRegion(damage[f % DAMAGE_HISTORY], current, lcdWidth, to);
+			}
+		}
+
+		copyRegion(region, from, stride, to);
+
+		flips++;
+		pageFlips[next] = flips;
+		shown = next;
+	}
+
+	private void copyRegion(DirtyRegion region, int[] from, int stride, int[] to)
+	{
+		for(int i=0; i<region.size(); i++)
+		{
+			int left = region.getX(i);
+			int width = Math.min(region.getWidth(i), stride-left);
+			int bottom = Math.min(region.getY(i)+region.getHeight(i), lcdHeight);
+			for(int row=region.getY(i); row<bottom && width>0; row++)
+			{
+				System.arraycopy(from, row*stride+left, to, row*lcdWidth+left, width);
+			}
+		}
+	}
+
 }
@@ -0,0 +1,199 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import com.nokia.mid.ui.DirectGraphics;
+
+/*
+
+	Pixel Kernels
+
+	Loops over runs of pixels: Nokia short formats to and from ARGB,
+	ARGB packed to RGB888 / RGB565 bytes for the frontends, and the
+	opaque, masked and blended row copies used by Blitter.
+
+	These are the scalar versions. get() returns VectorPixelKernels
+	instead when it was built (src-vector, needs JDK 16+) and the JVM
+	was started with --add-modules jdk.incubator.vector. Setting
+	-Dfreej2me.kernels=scalar forces these. Both give the same pixels.
+
+*/
+
+public class PixelKernels
+{
+	private static PixelKernels instance;
+
+	public static synchronized PixelKernels get()
+	{
+		if(instance==null)
+		{
+			instance = create();
+			Mobile.log("Pixel Kernels: " + instance.getName());
+		}
+		return instance;
+	}
+
+	private static PixelKernels create()
+	{
+		if(!"scalar".equals(System.getProperty("freej2me.kernels")))
+		{
+			try
+			{
+				return (PixelKernels)Class.forName("org.recompile.mobile.VectorPixelKernels").getDeclaredConstructor().newInstance();
+			}
+			catch (Throwable e) { } // not built, module not added, or vectors too narrow
+		}
+		return new PixelKernels();
+	}
+
+	public String getName() { return "scalar"; }
+
+	public void toARGB(short[] src, int s, int[] dst, int d, int count, int format)
+	{
+		for(int i=0; i<count; i++) { dst[d+i] = toARGB(src[s+i], format); }
+	}
+
+	public void fromARGB(int[] src, int s, short[] dst, int d, int count, int format)
+	{
+		for(int i=0; i<count; i++) { dst[d+i] = fromARGB(src[s+i], format); }
+	}
+
+	/*
+		3 bytes per pixel, red first.
+	*/
+	public void packRGB888(int[] src, int s, byte[] dst, int d, int count)
+	{
+		int end = s+count;
+		for(; s<end; s++, d+=3)
+		{
+			int pixel = src[s];
+			dst[d]   = (byte)(pixel>>16);
+			dst[d+1] = (byte)(pixel>>8);
+			dst[d+2] = (byte)pixel;
+		}
+	}
+
+	public void packRGB565(int[] src, int s, byte[] dst, int d, int count, boolean littleEndian)
+	{
+		int lo = littleEndian ? 0 : 1;
+		int end = s+count;
+		for(; s<end; s++, d+=2)
+		{
+			int pixel = src[s];
+			int c = ((pixel>>8)&0xF800) | ((pixel>>5)&0x07E0) | ((pixel>>3)&0x001F);
+			dst[d+lo]   = (byte)c;
+			dst[d+1-lo] = (byte)(c>>8);
+		}
+	}
+
+	public void opaque(int[] src, int s, int[] dst, int d, int count)
+	{
+		int end = d+count;
+		for(; d<end; d++, s++) { dst[d] = src[s] | 0xFF000000; }
+	}
+
+	/*
+		Copies the pixels that aren't fully transparent.
+	*/
+	public void masked(int[] src, int s, int[] dst, int d, int count)
+	{
+		int end = d+count;
+		for(; d<end; d++, s++)
+		{
+			int pixel = src[s];
+			if(pixel>>>24!=0) { dst[d] = pixel; }
+		}
+	}
+
+	public void blend(int[] src, int s, int[] dst, int d, int count)
+	{
+		int end = d+count;
+		for(; d<end; d++, s++)
+		{
+			int pixel = src[s];
+			int alpha = pixel>>>24;
+			if(alpha==0xFF) { dst[d] = pixel; }
+			else if(alpha!=0) { dst[d] = Blitter.blend(pixel, dst[d]); }
+		}
+	}
+
+	public static int toARGB(int c, int format)
+	{
+		int a = 0xFF;
+		int r = 0;
+		int g = 0;
+		int b = 0;
+		switch(format)
+		{
+			case DirectGraphics.TYPE_USHORT_1555_ARGB:
+				a = ((c>>15) & 0x01)*0xFF;
+				r = (c>>10) & 0x1F; g = (c>>5) & 0x1F; b = c & 0x1F;
+				r = (r<<3)|(r>>2); g = (g<<3)|(g>>2); b = (b<<3)|(b>>2);
+				break;
+			case DirectGraphics.TYPE_USHORT_444_RGB:
+				r = (c>>8) & 0xF; g = (c>>4) & 0xF; b = c & 0xF;
+				r = (r<<4)|r; g = (g<<4)|g; b = (b<<4)|b;
+				break;
+			case DirectGraphics.TYPE_USHORT_4444_ARGB:
+				a = (c>>12) & 0xF; r = (c>>8) & 0xF; g = (c>>4) & 0xF; b = c & 0xF;
+				a = (a<<4)|a; r = (r<<4)|r; g = (g<<4)|g; b = (b<<4)|b;
+				break;
+			case DirectGraphics.TYPE_USHORT_555_RGB:
+				r = (c>>10) & 0x1F; g = (c>>5) & 0x1F; b = c & 0x1F;
+				r = (r<<3)|(r>>2); g = (g<<3)|(g>>2); b = (b<<3)|(b>>2);
+				break;
+			case DirectGraphics.TYPE_USHORT_565_RGB:
+				r = (c>>11) & 0x1F; g = (c>>5) & 0x3F; b = c & 0x1F;
+				r = (r<<3)|(r>>2); g = (g<<2)|(g>>4); b = (b<<3)|(b>>2);
+				break;
+		}
+		return (a<<24) | (r<<16) | (g<<8) | b;
+	}
+
+	public static short fromARGB(int c, int format)
+	{
+		int a = 0;
+		int r = 0;
+		int g = 0;
+		int b = 0;
+		int out = 0;
+		switch(format)
+		{
+			case DirectGraphics.TYPE_USHORT_1555_ARGB:
+				a=c>>>31; r=((c>>19)&0x1F); g=((c>>11)&0x1F); b=((c>>3)&0x1F);
+				out=(a<<15)|(r<<10)|(g<<5)|b;
+				break;
+			case DirectGraphics.TYPE_USHORT_444_RGB:
+				r=((c>>20)&0xF); g=((c>>12)&0xF); b=((c>>4)&0xF);
+				out=(r<<8)|(g<<4)|b;
+				break;
+			case DirectGraphics.TYPE_USHORT_4444_ARGB:
+				a=((c>>>28)&0xF); r=((c>>20)&0xF); g=((c>>12)&0xF); b=((c>>4)&0xF);
+				out=(a<<12)|(r<<8)|(g<<4)|b;
+				break;
+			case DirectGraphics.TYPE_USHORT_555_RGB:
+				r=((c>>19)&0x1F); g=((c>>11)&0x1F); b=((c>>3)&0x1F);
+				out=(r<<10)|(g<<5)|b;
+				break;
+			case DirectGraphics.TYPE_USHORT_565_RGB:
+				r=((c>>19)&0x1F); g=((c>>10)&0x3F); b=((c>>3)&0x1F);
+				out=(r<<11)|(g<<5)|b;
+				break;
+		}
+		return (short)out;
+	}
+}
@@ -18,25 +18,41 @@ package org.recompile.mobile;
 
 import javax.microedition.lcdui.Font;
 
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
-
 public class PlatformFont
 {
-	private Graphics2D gc;
-
 	public java.awt.Font awtFont;
 
+	// Glyphs and metrics, shared by fonts with the same awtFont //
+	public GlyphAtlas glyphs;
+
 	public PlatformFont(Font font)
 	{
 		// TODO: use info from mobilefont to construct font
 		awtFont = new java.awt.Font("SansSerif", java.awt.Font.PLAIN, font.getPointSize());
-		gc = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
-		gc.setFont(awtFont);
+		glyphs = GlyphAtlas.get(awtFont);
+	}
+
+	public int charWidth(char c)
+	{
+		if(GlyphAtlas.needsLayout(c)) { return glyphs.stringWidth(String.valueOf(c)); }
+		return glyphs.charWidth(c);
 	}
 
 	public int stringWidth(String str)
 	{
-		return gc.getFontMetrics().stringWidth(str);
+		return textWidth(str, null, 0, str.length());
+	}
+
+	/*
+		Width of str (or data, if not null) from offset, the same
+		widths drawString uses.
+	*/
+	public int textWidth(String str, char[] data, int offset, int length)
+	{
+		if(GlyphAtlas.needsLayout(str, data, offset, length))
+		{
+			return glyphs.stringWidth(data!=null ? new String(data, offset, length) : str.substring(offset, offset+length));
+		}
+		return glyphs.textWidth(str, data, offset, length);
 	}
 }
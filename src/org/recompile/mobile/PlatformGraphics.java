@@ -27,6 +27,7 @@ import com.nokia.mid.ui.DirectGraphics;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.geom.AffineTransform;
 
 public class PlatformGraphics extends javax.microedition.lcdui.Graphics implements DirectGraphics
@@ -34,27 +35,63 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 	protected BufferedImage canvas;
 	protected Graphics2D gc;
 
-	protected Color awtColor;
+	// The canvas pixels, for direct copies //
+	private int[] pixels;
 
-	protected int strokeStyle = SOLID;
+	// Converted Nokia pixels, reused between calls //
+	private int[] scratch = new int[0];
+
+	// For drawChar //
+	private char[] charBuffer;
+
+	private static final PixelKernels kernels = PixelKernels.get();
 
-	protected Font font = Font.getFont(Font.FACE_SYSTEM, Font.STYLE_PLAIN, Font.SIZE_MEDIUM);
+	protected int strokeStyle = SOLID;
 
 	public PlatformGraphics platformGraphics;
 	public PlatformImage platformImage;
 
+	// Draws the geometric primitives //
+	private Rasterizer raster;
+
+	// Keeps gc's color, translation and clip, raster may be this too //
+	private Java2DRasterizer awt;
+
+	// Points for drawPolygon, fillPolygon and drawTriangle, reused //
+	private int[] pointsX = new int[3];
+	private int[] pointsY = new int[3];
+
+	// Clip in canvas coordinates, for dirty tracking and direct copies //
+	private int dirtyClipX;
+	private int dirtyClipY;
+	private int dirtyClipWidth;
+	private int dirtyClipHeight;
+
 	public PlatformGraphics(PlatformImage image)
 	{
 		canvas = image.getCanvas();
 		gc = canvas.createGraphics();
+		pixels = ((DataBufferInt)canvas.getRaster().getDataBuffer()).getData();
 		platformImage = image;
 
 		platformGraphics = this;
 
+		awt = new Java2DRasterizer(gc);
+		MobilePlatform platform = Mobile.getPlatform();
+		if(platform!=null && platform.softwareRaster && SoftwareRasterizer.supports(canvas))
+		{
+			raster = new SoftwareRasterizer(canvas);
+		}
+		else
+		{
+			raster = awt;
+		}
+
 		clipX = 0;
 		clipY = 0;
 		clipWidth = canvas.getWidth();
 		clipHeight = canvas.getHeight();
+		updateDirtyClip();
 
 		setColor(0,0,0);
 		gc.setBackground(new Color(0, 0, 0, 0));
@@ -63,7 +100,7 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 
 	public Graphics2D getGraphics2D()
 	{
-		return gc;
+		return awt.graphics();
 	}
 
 	public BufferedImage getCanvas()
@@ -73,7 +110,8 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 
 	public void clearRect(int x, int y, int width, int height)
 	{
-		gc.clearRect(x, y, width, height);
+		raster.clearRect(x, y, width, height);
+		damage(x, y, width, height, false);
 	}
 
 	public void copyArea(int subx, int suby, int subw, int subh, int x, int y, int anchor)
@@ -81,32 +119,52 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 		x = AnchorX(x, subw, anchor);
 		y = AnchorY(y, subh, anchor);
 
-		BufferedImage sub = canvas.getSubimage(subx, suby, subw, subh);
+		int left = subx+translateX;
+		int top = suby+translateY;
+		if(subw<0 || subh<0 || left<0 || top<0 || left+subw>canvas.getWidth() || top+subh>canvas.getHeight())
+		{
+			throw new IllegalArgumentException("copyArea source outside the image");
+		}
 
-		gc.drawImage(sub, x, y, null);
+		int stride = canvas.getWidth();
+		if(y>suby)
+		{
+			// Copy rows bottom up so an overlapping source isn't overwritten first //
+			int last = (top+subh-1)*stride + left;
+			copyPixels(pixels, last, 1, -stride, x, y+subh-1, subw, subh, -1, Blitter.COPY);
+			return;
+		}
+		copyPixels(pixels, top*stride+left, 1, stride, x, y, subw, subh, 1, Blitter.COPY);
 	}
 
 	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle)
 	{
-		gc.drawArc(x, y, width, height, startAngle, arcAngle);
+		raster.drawArc(x, y, width, height, startAngle, arcAngle);
+		damage(x, y, width+1, height+1);
 	}
 
 	public void drawChar(char character, int x, int y, int anchor)
 	{
-		drawString(Character.toString(character), x, y, anchor);
+		if(charBuffer==null) { charBuffer = new char[1]; }
+		charBuffer[0] = character;
+		drawText(null, charBuffer, 0, 1, x, y, anchor);
 	}
 
 	public void drawChars(char[] data, int offset, int length, int x, int y, int anchor)
 	{
-		char[] str = new char[length];
-		for(int i=offset; i<offset+length; i++)
+		if(offset<0 || length<0 || offset+length>data.length)
 		{
-			if(i>=0 && i<data.length)
+			// Characters outside the array draw as \0 //
+			char[] str = new char[Math.max(0, length)];
+			for(int i=offset; i<offset+length; i++)
 			{
-				str[i-offset] = data[i];
+				if(i>=0 && i<data.length) { str[i-offset] = data[i]; }
 			}
-		}	
-		drawString(new String(str), x, y, anchor);
+			data = str;
+			offset = 0;
+			length = str.length;
+		}
+		drawText(null, data, offset, length, x, y, anchor);
 	}
 
 	public void drawImage(Image image, int x, int y, int anchor)
@@ -116,10 +174,7 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 			int imgWidth = image.getWidth();
 			int imgHeight = image.getHeight();
 
-			x = AnchorX(x, imgWidth, anchor);
-			y = AnchorY(y, imgHeight, anchor);
-
-			gc.drawImage(image.platformImage.getCanvas(), x, y, null);
+			drawTransformed(image.platformImage, 0, 0, imgWidth, imgHeight, Sprite.TRANS_NONE, x, y, anchor);
 		}
 		catch (Exception e)
 		{
@@ -131,7 +186,7 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 	{
 		try
 		{
-			gc.drawImage(image.platformImage.getCanvas(), x, y, null);
+			drawTransformed(image.platformImage, 0, 0, image.getWidth(), image.getHeight(), Sprite.TRANS_NONE, x, y, 0);
 		}
 		catch (Exception e)
 		{
@@ -141,11 +196,11 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 
 	public void drawImage2(Image image, int x, int y) // Internal use method called by PlatformImage
 	{
-		gc.drawImage(image.platformImage.getCanvas(), x, y, null);
+		drawTransformed(image.platformImage, 0, 0, image.getWidth(), image.getHeight(), Sprite.TRANS_NONE, x, y, 0);
 	}
 	public void drawImage2(BufferedImage image, int x, int y) // Internal use method called by PlatformImage
 	{
-		gc.drawImage(image, x, y, null);
+		blit(image, x, y);
 	}
 
 	public void drawImage2Test(BufferedImage image, int x, int y)
@@ -178,6 +233,11 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 					}
 				}
 			}
+			synchronized(platformImage.dirty)
+			{
+				platformImage.dirty.add(x, y, width, height);
+				platformImage.modified(false);
+			}
 		}
 		catch (Exception e)
 		{
@@ -185,87 +245,41 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 		}
 	}
 
-	public void flushGraphics(Image image, int x, int y, int width, int height)
-	{
-		// called by MobilePlatform.flushGraphics/repaint
-		try
-		{
-			BufferedImage sub = image.platformImage.getCanvas().getSubimage(x, y, width, height);
-			gc.drawImage(sub, x, y, null);
-		}
-		catch (Exception e)
-		{
-			//System.out.println("flushGraphics A:"+e.getMessage());
-		}
-	}
-
 	public void drawRegion(Image image, int subx, int suby, int subw, int subh, int transform, int x, int y, int anchor)
 	{
-		try
-		{
-			if(transform == 0)
-			{
-				BufferedImage sub = image.platformImage.getCanvas().getSubimage(subx, suby, subw, subh);
-				x = AnchorX(x, subw, anchor);
-				y = AnchorY(y, subh, anchor);
-				gc.drawImage(sub, x, y, null);
-			}
-			else
-			{
-				PlatformImage sub = new PlatformImage(image, subx, suby, subw, subh, transform);
-				x = AnchorX(x, sub.width, anchor);
-				y = AnchorY(y, sub.height, anchor);
-				gc.drawImage(sub.getCanvas(), x, y, null);
-			}
-		}
-		catch (Exception e)
-		{
-			//System.out.println("drawRegion A (x:"+x+" y:"+y+" w:"+subw+" h:"+subh+"):"+e.getMessage());
-		}
+		drawTransformed(image.platformImage, subx, suby, subw, subh, transform, x, y, anchor);
 	}
 
 	public void drawRGB(int[] rgbData, int offset, int scanlength, int x, int y, int width, int height, boolean processAlpha)
 	{
 		if(width<1 || height<1) { return; }
-		if(!processAlpha)
-		{
-			for (int i=offset; i<rgbData.length; i++) { rgbData[i] &= 0x00FFFFFF; rgbData[i] |= 0xFF000000; }
-		}
-		else
-		{	// Fix Alpha //
-			for (int i=offset; i<rgbData.length; i++) { rgbData[i] |= 0x00000000; rgbData[i] &= 0xFFFFFFFF; }
-		}
-		// Copy from new image.  This avoids some problems with games that don't
-		// properly adapt to different display sizes.
-		BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-		temp.setRGB(0, 0, width, height, rgbData, offset, scanlength);	
-		gc.drawImage(temp, x, y, null);
+		copyPixels(rgbData, offset, 1, scanlength, x, y, width, height, 1, processAlpha ? Blitter.BLEND : Blitter.OPAQUE);
 	}
 
 
 	public void drawLine(int x1, int y1, int x2, int y2)
 	{
-		gc.drawLine(x1, y1, x2, y2);
+		raster.drawLine(x1, y1, x2, y2);
+		damage(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2-x1)+1, Math.abs(y2-y1)+1);
 	}
 
 	public void drawRect(int x, int y, int width, int height)
 	{
-		gc.drawRect(x, y, width, height);
+		raster.drawRect(x, y, width, height);
+		damage(x, y, width+1, height+1);
 	}
 
 	public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight)
 	{
-		gc.drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+		raster.drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+		damage(x, y, width+1, height+1);
 	}
 
 	public void drawString(String str, int x, int y, int anchor)
 	{
 		if(str!=null)
 		{
-			x = AnchorX(x, gc.getFontMetrics().stringWidth(str), anchor);
-			y = y + gc.getFontMetrics().getAscent() - 1;
-			y = AnchorY(y, gc.getFontMetrics().getHeight(), anchor);
-			gc.drawString(str, x, y);
+			drawText(str, null, 0, str.length(), x, y, anchor);
 		}
 	}
 
@@ -273,24 +287,93 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 	{
 		if (str.length() >= offset + len)
 		{
-			drawString(str.substring(offset, offset+len), x, y, anchor);
+			drawText(str, null, offset, len, x, y, anchor);
+		}
+	}
+
+	/*
+		Draws str, or data if it isn't null, from offset. Glyphs come
+		from the font's GlyphAtlas and are filled straight into the
+		canvas. Text that needs layout is left to AWT.
+	*/
+	private void drawText(String str, char[] data, int offset, int length, int x, int y, int anchor)
+	{
+		PlatformFont platformFont = font.platformFont;
+		GlyphAtlas glyphs = platformFont.glyphs;
+		int width = platformFont.textWidth(str, data, offset, length);
+		x = AnchorX(x, width, anchor);
+		y = y + glyphs.ascent - 1;
+		y = AnchorY(y, glyphs.lineHeight, anchor);
+
+		if(GlyphAtlas.needsLayout(str, data, offset, length))
+		{
+			awt.graphics().drawString(data!=null ? new String(data, offset, length) : str.substring(offset, offset+length), x, y);
+			damage(x, y-glyphs.ascent, width, glyphs.lineHeight);
+			return;
+		}
+
+		int color = 0xFF000000 | this.color;
+		int stride = canvas.getWidth();
+		int clipRight = dirtyClipX+dirtyClipWidth;
+		int clipBottom = dirtyClipY+dirtyClipHeight;
+		int left = Integer.MAX_VALUE;
+		int top = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		int pen = x+translateX;
+		int baseline = y+translateY;
+		synchronized(glyphs)
+		{
+			for(int i=offset; i<offset+length; i++)
+			{
+				int glyph = glyphs.find(data!=null ? data[i] : str.charAt(i));
+				int gx = pen + glyphs.left[glyph];
+				int gy = baseline + glyphs.top[glyph];
+				int gw = glyphs.width[glyph];
+				int gh = glyphs.height[glyph];
+				pen += glyphs.advance[glyph];
+
+				int x1 = Math.max(gx, dirtyClipX);
+				int y1 = Math.max(gy, dirtyClipY);
+				int x2 = Math.min(gx+gw, clipRight);
+				int y2 = Math.min(gy+gh, clipBottom);
+				if(x1>=x2 || y1>=y2) { continue; }
+
+				Blitter.fillMask(glyphs.mask, (glyphs.y[glyph]+y1-gy)*GlyphAtlas.STRIDE + glyphs.x[glyph]+x1-gx, GlyphAtlas.STRIDE,
+					color, pixels, y1*stride+x1, stride, x2-x1, y2-y1);
+				left = Math.min(left, x1);
+				top = Math.min(top, y1);
+				right = Math.max(right, x2);
+				bottom = Math.max(bottom, y2);
+			}
+		}
+		if(left<right)
+		{
+			synchronized(platformImage.dirty)
+			{
+				platformImage.dirty.add(left, top, right-left, bottom-top);
+				platformImage.modified(true);
+			}
 		}
 	}
 
 	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle)
 	{
-		gc.fillArc(x, y, width, height, startAngle, arcAngle);
+		raster.fillArc(x, y, width, height, startAngle, arcAngle);
+		damage(x, y, width, height);
 	}
 
 	public void fillRect(int x, int y, int width, int height)
 	{
-		gc.fillRect(x, y, width, height);
+		raster.fillRect(x, y, width, height);
+		damage(x, y, width, height);
 	}
 
 	public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight)
 	{
-		gc.fillRoundRect(x, y, width, height, arcWidth, arcHeight);
-		gc.fillRect(x, y, width, height);
+		raster.fillRoundRect(x, y, width, height, arcWidth, arcHeight);
+		raster.fillRect(x, y, width, height);
+		damage(x, y, width, height);
 	}
 
 	//public int getBlueComponent() { }
@@ -308,9 +391,12 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 
 	public void setColor(int r, int g, int b)
 	{
+		if(((r|g|b) & ~0xFF)!=0)
+		{
+			throw new IllegalArgumentException("Color out of range: "+r+", "+g+", "+b);
+		}
 		color = (r<<16) + (g<<8) + b;
-		awtColor = new Color(r, g, b);
-		gc.setColor(awtColor);
+		setRasterColor(0xFF000000 | color);
 	}
 
 	public void setFont(Font font)
@@ -323,30 +409,112 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 
 	public void setClip(int x, int y, int width, int height)
 	{
-		gc.setClip(x, y, width, height);
-		clipX = (int)gc.getClipBounds().getX();
-		clipY = (int)gc.getClipBounds().getY();
-		clipWidth = (int)gc.getClipBounds().getWidth();
-		clipHeight = (int)gc.getClipBounds().getHeight();
+		clipX = x;
+		clipY = y;
+		clipWidth = Math.max(0, width);
+		clipHeight = Math.max(0, height);
+		updateDirtyClip();
 	}
 
 	public void clipRect(int x, int y, int width, int height)
 	{
-		gc.clipRect(x, y, width, height);
-		clipX = (int)gc.getClipBounds().getX();
-		clipY = (int)gc.getClipBounds().getY();
-		clipWidth = (int)gc.getClipBounds().getWidth();
-		clipHeight = (int)gc.getClipBounds().getHeight();
+		int right = Math.min(clipX+clipWidth, x+width);
+		int bottom = Math.min(clipY+clipHeight, y+height);
+		clipX = Math.max(clipX, x);
+		clipY = Math.max(clipY, y);
+		clipWidth = Math.max(0, right-clipX);
+		clipHeight = Math.max(0, bottom-clipY);
+		updateDirtyClip();
 	}
 
 	//public int getTranslateX() { }
 	//public int getTranslateY() { }
 
+	/*
+		The clip stays where it is on the canvas, so it moves by -x, -y
+		in the translated space.
+	*/
 	public void translate(int x, int y)
 	{
 		translateX += x;
 		translateY += y;
-		gc.translate(x, y);
+		clipX -= x;
+		clipY -= y;
+		raster.setTranslate(translateX, translateY);
+		if(raster!=awt) { awt.setTranslate(translateX, translateY); }
+	}
+
+	/*
+		Dirty tracking. Coordinates are in the translated space the
+		MIDlet draws in, the region is kept in canvas coordinates.
+	*/
+	private void damage(int x, int y, int width, int height)
+	{
+		damage(x, y, width, height, true);
+	}
+
+	private void damage(int x, int y, int width, int height, boolean keepsOpaque)
+	{
+		x += translateX;
+		y += translateY;
+		int x2 = Math.min(x+width, dirtyClipX+dirtyClipWidth);
+		int y2 = Math.min(y+height, dirtyClipY+dirtyClipHeight);
+		x = Math.max(x, dirtyClipX);
+		y = Math.max(y, dirtyClipY);
+		if(x>=x2 || y>=y2) { return; }
+		synchronized(platformImage.dirty)
+		{
+			platformImage.dirty.add(x, y, x2-x, y2-y);
+			platformImage.modified(keepsOpaque);
+		}
+	}
+
+	private void damageTriangle(int x1, int y1, int x2, int y2, int x3, int y3, int stroke)
+	{
+		int left = Math.min(x1, Math.min(x2, x3));
+		int top = Math.min(y1, Math.min(y2, y3));
+		int right = Math.max(x1, Math.max(x2, x3));
+		int bottom = Math.max(y1, Math.max(y2, y3));
+		damage(left, top, right-left+stroke, bottom-top+stroke);
+	}
+
+	private void damagePolygon(int[] x, int[] y, int n, int stroke)
+	{
+		if(n<1) { return; }
+		int left = x[0];
+		int top = y[0];
+		int right = x[0];
+		int bottom = y[0];
+		for(int i=1; i<n; i++)
+		{
+			left = Math.min(left, x[i]);
+			top = Math.min(top, y[i]);
+			right = Math.max(right, x[i]);
+			bottom = Math.max(bottom, y[i]);
+		}
+		damage(left, top, right-left+stroke, bottom-top+stroke);
+	}
+
+	private void updateDirtyClip()
+	{
+		dirtyClipX = Math.max(0, clipX+translateX);
+		dirtyClipY = Math.max(0, clipY+translateY);
+		dirtyClipWidth = Math.min(canvas.getWidth(), clipX+translateX+clipWidth) - dirtyClipX;
+		dirtyClipHeight = Math.min(canvas.getHeight(), clipY+translateY+clipHeight) - dirtyClipY;
+		raster.setClip(dirtyClipX, dirtyClipY, dirtyClipWidth, dirtyClipHeight);
+		if(raster!=awt) { awt.setClip(dirtyClipX, dirtyClipY, dirtyClipWidth, dirtyClipHeight); }
+	}
+
+	private void setRasterColor(int argb)
+	{
+		raster.setColor(argb);
+		if(raster!=awt) { awt.setColor(argb); }
+	}
+
+	private void blit(BufferedImage image, int x, int y)
+	{
+		awt.graphics().drawImage(image, x, y, null);
+		damage(x, y, image.getWidth(), image.getHeight());
 	}
 
 	private int AnchorX(int x, int width, int anchor)
@@ -370,7 +538,7 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 
 	public void setAlphaRGB(int ARGB)
 	{
-		gc.setColor(new Color(ARGB, true));
+		setRasterColor(ARGB);
 	}
 
 	/*
@@ -395,105 +563,74 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 	public void drawImage(javax.microedition.lcdui.Image img, int x, int y, int anchor, int manipulation)
 	{
 		//System.out.println("Nokia drawImage");
-		BufferedImage image = manipulateImage(img.platformImage.getCanvas(), manipulation);
-		x = AnchorX(x, image.getWidth(), anchor);
-		y = AnchorY(y, image.getHeight(), anchor);
-		drawImage2(image, x, y);
-		//drawImage2Test(image, x, y);
+		BufferedImage image = img.platformImage.getCanvas();
+		drawTransformed(img.platformImage, 0, 0, image.getWidth(), image.getHeight(), manipulationToTransform(manipulation), x, y, anchor);
 	}
 
 	public void drawPixels(byte[] pixels, byte[] transparencyMask, int offset, int scanlength, int x, int y, int width, int height, int manipulation, int format)
 	{
 		//System.out.println("drawPixels A "+format); // Found In Use
-		int[] Type1 = {0xFFFFFFFF, 0xFF000000, 0x00FFFFFF, 0x00000000};
-		int c = 0;
-		int[] data;
-		BufferedImage temp;
-		switch(format)
-		{
-			case -1: // TYPE_BYTE_1_GRAY_VERTICAL // used by Monkiki's Castles
-				data = new int[width*height];
-				int ods = offset / scanlength;
-				int oms = offset % scanlength;
-				int b = ods % 8; //Bit offset in a byte
-				for (int yj = 0; yj < height; yj++)
-				{
-					int ypos = yj * width;
-					int tmp = (ods + yj) / 8 * scanlength+oms;
-					for (int xj = 0; xj < width; xj++)
-					{
-						c = ((pixels[tmp + xj]>>b)&1);
-						if(transparencyMask!=null) { c |= (((transparencyMask[tmp + xj]>>b)&1)^1)<<1; }
-						data[(yj*width)+xj] = Type1[c];
-					}
-					b++;
-					if(b>7) b=0;
-				}
-
-				temp = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-				temp.setRGB(0, 0, width, height, data, 0, width);
-				gc.drawImage(manipulateImage(temp, manipulation), x, y, null);
-			break;
-
-			case 1: // TYPE_BYTE_1_GRAY // used by Monkiki's Castles
-				data = new int[pixels.length*8];
-
-				for(int i=(offset/8); i<pixels.length; i++)
-				{
-					for(int j=7; j>=0; j--)
-					{
-						c = ((pixels[i]>>j)&1);
-						if(transparencyMask!=null) { c |= (((transparencyMask[i]>>j)&1)^1)<<1; }
-						data[(i*8)+(7-j)] = Type1[c];
-					}
-				}
-				temp = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-				temp.setRGB(0, 0, width, height, data, 0, scanlength);
-				gc.drawImage(manipulateImage(temp, manipulation), x, y, null);
-			break;
-
-			default: System.out.println("drawPixels A : Format " + format + " Not Implemented");
+		if(width<1 || height<1) { return; }
+		int bits = DirectPixels.bits(format);
+		if(bits==0)
+		{
+			System.out.println("drawPixels A : Format " + format + " Not Implemented");
+			return;
 		}
+		if(scratch.length<width*height) { scratch = new int[width*height]; }
+		DirectPixels.decode(pixels, transparencyMask, offset, scanlength, width, height, format, scratch);
+		int mode = Blitter.COPY;
+		if(transparencyMask!=null) { mode = bits==1 ? Blitter.MASKED : Blitter.BLEND; }
+		drawManipulated(scratch, 0, width, x, y, width, height, manipulation, mode);
 	}
 
 	public void drawPixels(int[] pixels, boolean transparency, int offset, int scanlength, int x, int y, int width, int height, int manipulation, int format)
 	{
 		//System.out.println("drawPixels B "+format+" "+transparency); // Found In Use
-		BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-		temp.setRGB(0, 0, width, height, pixels, offset, scanlength);
-		BufferedImage temp2 = manipulateImage(temp, manipulation);
-		gc.drawImage(temp2, x, y, null);
+		if(width<1 || height<1) { return; }
+		// 888 has no alpha, and without transparency the alpha is ignored //
+		int mode = Blitter.OPAQUE;
+		if(transparency && format!=DirectGraphics.TYPE_INT_888_RGB) { mode = Blitter.BLEND; }
+		drawManipulated(pixels, offset, scanlength, x, y, width, height, manipulation, mode);
 	}
 
 	public void drawPixels(short[] pixels, boolean transparency, int offset, int scanlength, int x, int y, int width, int height, int manipulation, int format)
 	{
 		//System.out.println("drawPixels C "+format+" "+transparency); // Found In Use
-		int[] data = new int[pixels.length];
-		for(int i=0; i<pixels.length; i++)
+		if(width<1 || height<1) { return; }
+		if(scratch.length<width*height) { scratch = new int[width*height]; }
+		for(int row=0; row<height; row++)
 		{
-			data[i] = pixelToColor(pixels[i], format);
-			if(!transparency) { data[i] &=0x00FFFFFF; }
+			kernels.toARGB(pixels, offset + row*scanlength, scratch, row*width, width, format);
 		}
-
-		BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-		temp.setRGB(0, 0, width, height, data, offset, scanlength);
-		gc.drawImage(manipulateImage(temp, manipulation), x, y, null);
+		int mode = Blitter.OPAQUE;
+		if(transparency)
+		{
+			switch(format)
+			{
+				case DirectGraphics.TYPE_USHORT_4444_ARGB: mode = Blitter.BLEND; break;
+				case DirectGraphics.TYPE_USHORT_1555_ARGB: mode = Blitter.MASKED; break;
+				default: mode = Blitter.COPY; // no alpha, converted as opaque
+			}
+		}
+		drawManipulated(scratch, 0, width, x, y, width, height, manipulation, mode);
 	}
 
 	public void drawPolygon(int[] xPoints, int xOffset, int[] yPoints, int yOffset, int nPoints, int argbColor)
 	{
 		int temp = color;
-		int[] x = new int[nPoints];
-		int[] y = new int[nPoints];
+		if(pointsX.length<nPoints)
+		{
+			pointsX = new int[nPoints];
+			pointsY = new int[nPoints];
+		}
 
 		setAlphaRGB(argbColor);
 
-		for(int i=0; i<nPoints; i++)
-		{
-			x[i] = xPoints[xOffset+i];
-			y[i] = yPoints[yOffset+i];
-		}
-		gc.drawPolygon(x, y, nPoints);
+		System.arraycopy(xPoints, xOffset, pointsX, 0, nPoints);
+		System.arraycopy(yPoints, yOffset, pointsY, 0, nPoints);
+		raster.drawPolygon(pointsX, pointsY, nPoints);
+		damagePolygon(pointsX, pointsY, nPoints, 1);
 		setColor(temp);
 	}
 
@@ -502,31 +639,36 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 		//System.out.println("drawTriange");
 		int temp = color;
 		setAlphaRGB(argbColor);
-		gc.drawPolygon(new int[]{x1,x2,x3}, new int[]{y1,y2,y3}, 3);
+		pointsX[0] = x1; pointsX[1] = x2; pointsX[2] = x3;
+		pointsY[0] = y1; pointsY[1] = y2; pointsY[2] = y3;
+		raster.drawPolygon(pointsX, pointsY, 3);
+		damageTriangle(x1, y1, x2, y2, x3, y3, 1);
 		setColor(temp);
 	}
 
 	public void fillPolygon(int[] xPoints, int xOffset, int[] yPoints, int yOffset, int nPoints, int argbColor)
 	{
 		int temp = color;
-		int[] x = new int[nPoints];
-		int[] y = new int[nPoints];
+		if(pointsX.length<nPoints)
+		{
+			pointsX = new int[nPoints];
+			pointsY = new int[nPoints];
+		}
 
 		setAlphaRGB(argbColor);
 
-		for(int i=0; i<nPoints; i++)
-		{
-			x[i] = xPoints[xOffset+i];
-			y[i] = yPoints[yOffset+i];
-		}
-		gc.fillPolygon(x, y, nPoints);
+		System.arraycopy(xPoints, xOffset, pointsX, 0, nPoints);
+		System.arraycopy(yPoints, yOffset, pointsY, 0, nPoints);
+		raster.fillPolygon(pointsX, pointsY, nPoints);
+		damagePolygon(pointsX, pointsY, nPoints, 0);
 		setColor(temp);
 	}
 
 	public void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3)
 	{
 		//System.out.println("fillTriangle"); // Found In Use
-		gc.fillPolygon(new int[]{x1,x2,x3}, new int[]{y1,y2,y3}, 3);
+		raster.fillTriangle(x1, y1, x2, y2, x3, y3);
+		damageTriangle(x1, y1, x2, y2, x3, y3, 0);
 	}
 
 	public void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3, int argbColor)
@@ -534,126 +676,189 @@ public class PlatformGraphics extends javax.microedition.lcdui.Graphics implemen
 		//System.out.println("fillTriangle"); // Found In Use
 		int temp = color;
 		setAlphaRGB(argbColor);
-		gc.fillPolygon(new int[]{x1,x2,x3}, new int[]{y1,y2,y3}, 3);
+		raster.fillTriangle(x1, y1, x2, y2, x3, y3);
+		damageTriangle(x1, y1, x2, y2, x3, y3, 0);
 		setColor(temp);
 	}
 
+	/*
+		The getPixels coordinates are canvas coordinates, the
+		translation isn't applied.
+	*/
 	public void getPixels(byte[] pixels, byte[] transparencyMask, int offset, int scanlength, int x, int y, int width, int height, int format)
 	{
-		System.out.println("getPixels A");
+		//System.out.println("getPixels A");
+		if(DirectPixels.bits(format)==0)
+		{
+			System.out.println("getPixels A : Format " + format + " Not Implemented");
+			return;
+		}
+		checkPixelsRegion(x, y, width, height);
+		int stride = canvas.getWidth();
+		DirectPixels.encode(this.pixels, y*stride + x, stride, pixels, transparencyMask, offset, scanlength, width, height, format);
 	}
 
 	public void getPixels(int[] pixels, int offset, int scanlength, int x, int y, int width, int height, int format)
 	{
 		//System.out.println("getPixels B");
-		canvas.getRGB(x, y, width, height, pixels, offset, scanlength);
+		checkPixelsRegion(x, y, width, height);
+		int stride = canvas.getWidth();
+		for(int row=0; row<height; row++)
+		{
+			System.arraycopy(this.pixels, (y+row)*stride + x, pixels, offset + row*scanlength, width);
+		}
 	}
 
 	public void getPixels(short[] pixels, int offset, int scanlength, int x, int y, int width, int height, int format)
 	{
 		//System.out.println("getPixels C"); // Found In Use
-		int i = offset;
+		checkPixelsRegion(x, y, width, height);
+		int stride = canvas.getWidth();
 		for(int row=0; row<height; row++)
 		{
-			for (int col=0; col<width; col++)
-			{
-				pixels[i] = colorToShortPixel(canvas.getRGB(col+x, row+y), format);
-				i++;
-			}
+			kernels.fromARGB(this.pixels, (y+row)*stride + x, pixels, offset + row*scanlength, width, format);
 		}
 	}
 
-	private int pixelToColor(short c, int format)
-	{
-		int a = 0xFF;
-		int r = 0;
-		int g = 0;
-		int b = 0;
-		switch(format)
-		{
-			case DirectGraphics.TYPE_USHORT_1555_ARGB:
-				a = ((c>>15) & 0x01)*0xFF;
-				r = (c>>10) & 0x1F; g = (c>>5) & 0x1F; b = c & 0x1F;
-				r = (r<<3)|(r>>2); g = (g<<3)|(g>>2); b = (b<<3)|(b>>2);
-				break;
-			case DirectGraphics.TYPE_USHORT_444_RGB:
-				r = (c>>8) & 0xF; g = (c>>4) & 0xF; b = c & 0xF;
-				r = (r<<4)|r; g = (g<<4)|g; b = (b<<4)|b;
-				break;
-			case DirectGraphics.TYPE_USHORT_4444_ARGB:
-				a = (c>>12) & 0xF; r = (c>>8) & 0xF; g = (c>>4) & 0xF; b = c & 0xF;
-				a = (a<<4)|a; r = (r<<4)|r; g = (g<<4)|g; b = (b<<4)|b;
-				break;
-			case DirectGraphics.TYPE_USHORT_555_RGB:
-				r = (c>>10) & 0x1F; g = (c>>5) & 0x1F; b = c & 0x1F;
-				r = (r<<3)|(r>>2); g = (g<<3)|(g>>2); b = (b<<3)|(b>>2);
-				break;
-			case DirectGraphics.TYPE_USHORT_565_RGB:
-				r = (c>>11) & 0x1F; g = (c>>5) & 0x3F; b = c & 0x1F;
-				r = (r<<3)|(r>>2); g = (g<<2)|(g>>4); b = (b<<3)|(b>>2);
-				break;
-		}
-		return (a<<24) | (r<<16) | (g<<8) | b;
-	}
-
-	private short colorToShortPixel(int c, int format)
-	{
-		int a = 0;
-		int r = 0;
-		int g = 0;
-		int b = 0;
-		int out = 0;
-		switch(format)
-		{
-			case DirectGraphics.TYPE_USHORT_1555_ARGB:
-				a=c>>>31; r=((c>>19)&0x1F); g=((c>>11)&0x1F); b=((c>>3)&0x1F);
-				out=(a<<15)|(r<<10)|(g<<5)|b;
-				break;
-			case DirectGraphics.TYPE_USHORT_444_RGB:
-				r=((c>>20)&0xF); g=((c>>12)&0xF); b=((c>>4)&0xF);
-				out=(r<<8)|(g<<4)|b;
-				break;
-			case DirectGraphics.TYPE_USHORT_4444_ARGB:
-				a=((c>>>28)&0xF); r=((c>>20)&0xF); g=((c>>12)&0xF); b=((c>>4)&0xF);
-				out=(a<<12)|(r<<8)|(g<<4)|b;
-				break;
-			case DirectGraphics.TYPE_USHORT_555_RGB:
-				r=((c>>19)&0x1F); g=((c>>11)&0x1F); b=((c>>3)&0x1F);
-				out=(r<<10)|(g<<5)|b;
-				break;
-			case DirectGraphics.TYPE_USHORT_565_RGB:
-				r=((c>>19)&0x1F); g=((c>>10)&0x3F); b=((c>>3)&0x1F);
-				out=(r<<11)|(g<<5)|b;
-				break;
-		}
-		return (short)out;
-	}
-
-	private BufferedImage manipulateImage(BufferedImage image, int manipulation)
+	private void checkPixelsRegion(int x, int y, int width, int height)
+	{
+		if(x<0 || y<0 || width<0 || height<0 || x+width>canvas.getWidth() || y+height>canvas.getHeight())
+		{
+			throw new IllegalArgumentException("getPixels: region outside the canvas");
+		}
+	}
+
+	private int manipulationToTransform(int manipulation)
 	{
 		final int HV = DirectGraphics.FLIP_HORIZONTAL | DirectGraphics.FLIP_VERTICAL;
 		final int H90 = DirectGraphics.FLIP_HORIZONTAL | DirectGraphics.ROTATE_90;
 		switch(manipulation)
 		{
-			case DirectGraphics.FLIP_HORIZONTAL:
-				return PlatformImage.transformImage(image, Sprite.TRANS_MIRROR);
-			case DirectGraphics.FLIP_VERTICAL: 
-				return PlatformImage.transformImage(image, Sprite.TRANS_MIRROR_ROT180);
-			case DirectGraphics.ROTATE_90: 
-				return PlatformImage.transformImage(image, Sprite.TRANS_ROT90);
-			case DirectGraphics.ROTATE_180:
-				return PlatformImage.transformImage(image, Sprite.TRANS_ROT180);
-			case DirectGraphics.ROTATE_270:
-				return PlatformImage.transformImage(image, Sprite.TRANS_ROT270);
-			case HV:
-				return PlatformImage.transformImage(image, Sprite.TRANS_ROT180);
-			case H90: 
-				return PlatformImage.transformImage(PlatformImage.transformImage(image, Sprite.TRANS_MIRROR), Sprite.TRANS_ROT270);
+			case DirectGraphics.FLIP_HORIZONTAL: return Sprite.TRANS_MIRROR;
+			case DirectGraphics.FLIP_VERTICAL: return Sprite.TRANS_MIRROR_ROT180;
+			case DirectGraphics.ROTATE_90: return Sprite.TRANS_ROT90;
+			case DirectGraphics.ROTATE_180: return Sprite.TRANS_ROT180;
+			case DirectGraphics.ROTATE_270: return Sprite.TRANS_ROT270;
+			case HV: return Sprite.TRANS_ROT180;
+			case H90: return Sprite.TRANS_MIRROR_ROT270;
 			case 0: /* No Manipulation */ break;
 			default:
 				System.out.println("manipulateImage "+manipulation+" not defined");
 		}
-		return image;
+		return Sprite.TRANS_NONE;
+	}
+
+	/*
+		Draws a region of an image with a Sprite transform. Transformed
+		regions come from the platform's TransformCache when there is one.
+		Regions outside the image are ignored.
+	*/
+	private void drawTransformed(PlatformImage image, int subx, int suby, int subw, int subh, int transform, int x, int y, int anchor)
+	{
+		BufferedImage source = image.getCanvas();
+		int stride = source.getWidth();
+		if(subw<1 || subh<1 || subx<0 || suby<0 || subx+subw>stride || suby+subh>source.getHeight()) { return; }
+		int[] data = ((DataBufferInt)source.getRaster().getDataBuffer()).getData();
+		int offset = suby*stride+subx;
+
+		boolean swap = Blitter.transformSwaps(transform);
+		int width = swap ? subh : subw;
+		int height = swap ? subw : subh;
+		x = AnchorX(x, width, anchor);
+		y = AnchorY(y, height, anchor);
+
+		int mode = blitMode(image.getAlphaClass());
+		if(transform==Sprite.TRANS_NONE && image!=platformImage)
+		{
+			copyPixels(data, offset, 1, stride, x, y, width, height, 1, mode);
+			return;
+		}
+
+		MobilePlatform platform = Mobile.getPlatform();
+		TransformCache cache = image!=platformImage && platform!=null ? platform.transformCache : null;
+		int[] block = cache!=null ? cache.get(image, subx, suby, subw, subh, transform) : null;
+		if(block==null)
+		{
+			// Drawing onto itself goes through scratch, the source may be overwritten //
+			if(cache!=null) { block = new int[width*height]; }
+			else
+			{
+				if(scratch.length<width*height) { scratch = new int[width*height]; }
+				block = scratch;
+			}
+			Blitter.blit(data, Blitter.transformStart(transform, offset, stride, subw, subh),
+				Blitter.transformStepX(transform, stride), Blitter.transformStepY(transform, stride),
+				block, 0, width, width, height, Blitter.COPY);
+			if(cache!=null) { cache.put(image, subx, suby, subw, subh, transform, block); }
+		}
+		copyPixels(block, 0, 1, width, x, y, width, height, 1, mode);
+	}
+
+	private static int blitMode(int alphaClass)
+	{
+		switch(alphaClass)
+		{
+			case PlatformImage.ALPHA_OPAQUE: return Blitter.COPY;
+			case PlatformImage.ALPHA_BINARY: return Blitter.MASKED;
+		}
+		return Blitter.BLEND;
+	}
+
+	/*
+		Draws a width x height block of ARGB pixels (rows scanlength apart)
+		with a Nokia manipulation, without going through an image.
+	*/
+	private void drawManipulated(int[] data, int offset, int scanlength, int x, int y, int width, int height, int manipulation, int mode)
+	{
+		int transform = manipulationToTransform(manipulation);
+		int start = Blitter.transformStart(transform, offset, scanlength, width, height);
+		int stepX = Blitter.transformStepX(transform, scanlength);
+		int stepY = Blitter.transformStepY(transform, scanlength);
+		if(Blitter.transformSwaps(transform))
+		{
+			copyPixels(data, start, stepX, stepY, x, y, height, width, 1, mode);
+		}
+		else
+		{
+			copyPixels(data, start, stepX, stepY, x, y, width, height, 1, mode);
+		}
+	}
+
+	/*
+		Copies pixels straight into the canvas. The destination block
+		starts at x, y and goes down the rows in direction (1 or -1),
+		so overlapping copies can run bottom up.
+	*/
+	private void copyPixels(int[] data, int start, int stepX, int stepY, int x, int y, int width, int height, int direction, int mode)
+	{
+		x += translateX;
+		y += translateY;
+		int left = Math.max(x, dirtyClipX);
+		int right = Math.min(x+width, dirtyClipX+dirtyClipWidth);
+		int top;
+		int bottom;
+		if(direction>0)
+		{
+			top = Math.max(y, dirtyClipY);
+			bottom = Math.min(y+height, dirtyClipY+dirtyClipHeight);
+		}
+		else
+		{
+			top = Math.max(y-height+1, dirtyClipY);
+			bottom = Math.min(y+1, dirtyClipY+dirtyClipHeight);
+		}
+		if(left>=right || top>=bottom) { return; }
+
+		int stride = canvas.getWidth();
+		int first = direction>0 ? top : bottom-1;
+		start += (left-x)*stepX + (first-y)*direction*stepY;
+		Blitter.blit(data, start, stepX, stepY, pixels, first*stride+left, direction*stride, right-left, bottom-top, mode);
+
+		synchronized(platformImage.dirty)
+		{
+			platformImage.dirty.add(left, top, right-left, bottom-top);
+			platformImage.modified(true);
+		}
 	}
 
 }
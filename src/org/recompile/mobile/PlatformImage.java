@@ -28,9 +28,8 @@ import javax.microedition.lcdui.game.Sprite;
 import javax.microedition.lcdui.game.GameCanvas;
 
 import javax.imageio.ImageIO;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.geom.AffineTransform;
+import java.awt.image.DataBufferInt;
 
 public class PlatformImage extends javax.microedition.lcdui.Image
 {
@@ -39,6 +38,19 @@ public class PlatformImage extends javax.microedition.lcdui.Image
 
 	public boolean isNull = false;
 
+	// Area drawn since the last flush, kept by PlatformGraphics //
+	public DirtyRegion dirty = new DirtyRegion();
+
+	// Bumped on every draw, so cached copies of the pixels can tell they are stale //
+	public volatile int version = 0;
+
+	// Alpha of the pixels, picks the blit used when this image is drawn //
+	public static final int ALPHA_OPAQUE = 0;
+	public static final int ALPHA_BINARY = 1;
+	public static final int ALPHA_TRANSLUCENT = 2;
+	private int alphaClass = ALPHA_TRANSLUCENT;
+	private int alphaVersion = -1;
+
 	public BufferedImage getCanvas()
 	{
 		return canvas;
@@ -75,6 +87,7 @@ public class PlatformImage extends javax.microedition.lcdui.Image
 		gc.setColor(0x000000);
 
 		platformImage = this;
+		getAlphaClass();
 	}
 
 	public PlatformImage(String name)
@@ -111,6 +124,7 @@ public class PlatformImage extends javax.microedition.lcdui.Image
 			}
 		}
 		platformImage = this;
+		getAlphaClass();
 	}
 
 	public PlatformImage(InputStream stream)
@@ -136,6 +150,7 @@ public class PlatformImage extends javax.microedition.lcdui.Image
 		}
 
 		platformImage = this;
+		getAlphaClass();
 	}
 
 	public PlatformImage(Image source)
@@ -150,6 +165,7 @@ public class PlatformImage extends javax.microedition.lcdui.Image
 		gc.drawImage2(source.platformImage.getCanvas(), 0, 0);
 
 		platformImage = this;
+		getAlphaClass();
 	}
 
 	public PlatformImage(byte[] imageData, int imageOffset, int imageLength)
@@ -182,6 +198,7 @@ public class PlatformImage extends javax.microedition.lcdui.Image
 		}
 
 		platformImage = this;
+		getAlphaClass();
 	}
 
 	public PlatformImage(int[] rgb, int Width, int Height, boolean processAlpha)
@@ -199,6 +216,7 @@ public class PlatformImage extends javax.microedition.lcdui.Image
 		gc.drawRGB(rgb, 0, width, 0, 0, width, height, true);
 
 		platformImage = this;
+		getAlphaClass();
 	}
 
 	public PlatformImage(Image image, int x, int y, int Width, int Height, int transform)
@@ -213,6 +231,45 @@ public class PlatformImage extends javax.microedition.lcdui.Image
 		height = (int)canvas.getHeight();
 
 		platformImage = this;
+		getAlphaClass();
+	}
+
+	/*
+		Whether the pixels are all opaque, only fully opaque or fully
+		transparent, or anything else. Images are classified when they
+		are created, and again after a draw that could change the class.
+	*/
+	public int getAlphaClass()
+	{
+		synchronized(dirty)
+		{
+			if(alphaVersion!=version)
+			{
+				int[] data = ((DataBufferInt)canvas.getRaster().getDataBuffer()).getData();
+				alphaClass = ALPHA_OPAQUE;
+				for(int i=0; i<data.length; i++)
+				{
+					int alpha = data[i]>>>24;
+					if(alpha==0xFF) { continue; }
+					if(alpha!=0) { alphaClass = ALPHA_TRANSLUCENT; break; }
+					alphaClass = ALPHA_BINARY;
+				}
+				alphaVersion = version;
+			}
+			return alphaClass;
+		}
+	}
+
+	/*
+		Called by PlatformGraphics, holding the dirty lock, for each draw
+		onto this image. Source over can't make an opaque pixel less
+		opaque, so those draws keep an opaque image classified.
+	*/
+	public void modified(boolean keepsOpaque)
+	{
+		boolean known = alphaVersion==version;
+		version++;
+		if(known && keepsOpaque && alphaClass==ALPHA_OPAQUE) { alphaVersion = version; }
 	}
 
 	public void getRGB(int[] rgbData, int offset, int scanlength, int x, int y, int width, int height)
@@ -242,68 +299,18 @@ public class PlatformImage extends javax.microedition.lcdui.Image
 	{
 		int width = (int)image.getWidth();
 		int height = (int)image.getHeight();
-		int out_width = width;
-		int out_height = height;
-
-		AffineTransform af = new AffineTransform();
-
-		switch (transform) {
-			case Sprite.TRANS_NONE:
-				break;
-
-			case Sprite.TRANS_ROT90: 
-				af.translate(height, 0);
-				af.rotate(Math.PI / 2);
-				out_width = height;
-				out_height = width;
-				break;
-
-			case Sprite.TRANS_ROT180: 
-				af.translate(width, height);
-				af.rotate(Math.PI);
-				break;
-			
-			case Sprite.TRANS_ROT270:
-				af.translate(height, 0);
-				af.rotate(Math.PI / 2);
-				out_width = height;
-				out_height = width;
-				break;
-
-			case Sprite.TRANS_MIRROR: 
-				af.translate(width, 0);
-				af.scale(-1, 1);
-				break;
-
-			case Sprite.TRANS_MIRROR_ROT90: 
-				af.translate(width, 0);
-				af.scale(-1, 1);
-				af.translate(height, 0);
-				af.rotate(Math.PI / 2);
-				out_width = height;
-				out_height = width;
-				break;
-
-			case Sprite.TRANS_MIRROR_ROT180: 
-				af.translate(width, 0);
-				af.scale(-1, 1);
-				af.translate(width, height);
-				af.rotate(Math.PI);
-				break;
-
-			case Sprite.TRANS_MIRROR_ROT270: 
-				af.translate(height, 0);
-				af.rotate(Math.PI * 3 / 2);
-				af.translate(width, 0);
-				af.scale(-1, 1);
-				out_width = height;
-				out_height = width;
-				break;
-		}
+		int[] source = new int[width*height];
+		image.getRGB(0, 0, width, height, source, 0, width);
+
+		boolean swap = Blitter.transformSwaps(transform);
+		int out_width = swap ? height : width;
+		int out_height = swap ? width : height;
 
 		BufferedImage transimage = new BufferedImage(out_width, out_height, BufferedImage.TYPE_INT_ARGB);
-		Graphics2D gc = transimage.createGraphics();
-		gc.drawImage(image, af, null);
+		int[] target = ((DataBufferInt)transimage.getRaster().getDataBuffer()).getData();
+		Blitter.blit(source, Blitter.transformStart(transform, 0, width, width, height),
+			Blitter.transformStepX(transform, width), Blitter.transformStepY(transform, width),
+			target, 0, out_width, out_width, out_height, Blitter.COPY);
 
 		return transimage;
 	}
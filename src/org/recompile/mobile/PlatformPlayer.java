@@ -50,7 +50,7 @@ public class PlatformPlayer implements Player
 
 		contentType = type;
 
-		if(Mobile.sound == false)
+		if(Mobile.getPlatform().sound == false)
 		{
 			player = new audioplayer();
 		}
@@ -0,0 +1,63 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+/*
+
+	Rasterizer
+
+	The geometric primitives of PlatformGraphics. Coordinates are the
+	ones the MIDlet passes, PlatformGraphics keeps the translation and
+	the clip (in canvas coordinates) up to date with setTranslate and
+	setClip. Images and text are not drawn through here.
+
+	Java2DRasterizer draws with the image's Graphics2D, SoftwareRasterizer
+	writes the pixels itself. MobilePlatform.softwareRaster selects one
+	for graphics created after it is set.
+
+*/
+
+public interface Rasterizer
+{
+	public void setColor(int argb);
+
+	public void setTranslate(int x, int y);
+
+	public void setClip(int x, int y, int width, int height);
+
+	public void clearRect(int x, int y, int width, int height);
+
+	public void fillRect(int x, int y, int width, int height);
+
+	public void drawRect(int x, int y, int width, int height);
+
+	public void drawLine(int x1, int y1, int x2, int y2);
+
+	public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight);
+
+	public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight);
+
+	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle);
+
+	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle);
+
+	public void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3);
+
+	public void fillPolygon(int[] x, int[] y, int nPoints);
+
+	public void drawPolygon(int[] x, int[] y, int nPoints);
+}
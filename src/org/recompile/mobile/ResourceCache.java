@@ -0,0 +1,108 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.nio.ByteBuffer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+
+	Resource Cache
+
+	Least-recently-used cache of resource bytes, bounded by a memory
+	budget. Entries are handed out as read-only buffer views.
+
+*/
+
+public class ResourceCache
+{
+	private LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<String, ByteBuffer>(64, 0.75f, true);
+
+	private long budget;
+	private long size = 0;
+
+	private int hits = 0;
+	private int misses = 0;
+	private int evictions = 0;
+
+	public ResourceCache(long budget)
+	{
+		this.budget = budget;
+	}
+
+	public synchronized ByteBuffer get(String resource)
+	{
+		ByteBuffer data = entries.get(resource);
+		if(data==null)
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		return data.duplicate();
+	}
+
+	public synchronized void put(String resource, ByteBuffer data)
+	{
+		int length = data.remaining();
+		if(length>budget) { return; }
+
+		ByteBuffer old = entries.put(resource, data.asReadOnlyBuffer());
+		if(old!=null) { size -= old.remaining(); }
+		size += length;
+		trim();
+	}
+
+	public synchronized void setBudget(long budget)
+	{
+		this.budget = budget;
+		trim();
+	}
+
+	private void trim()
+	{
+		Iterator<Map.Entry<String, ByteBuffer>> it = entries.entrySet().iterator();
+		while(size>budget && it.hasNext())
+		{
+			size -= it.next().getValue().remaining();
+			it.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		size = 0;
+	}
+
+	public synchronized long getSize() { return size; }
+
+	public synchronized int getHits() { return hits; }
+
+	public synchronized int getMisses() { return misses; }
+
+	public synchronized int getEvictions() { return evictions; }
+
+	public void printStats()
+	{
+		Mobile.log("Resource Cache: " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions, " + (getSize()/1024) + "KB used");
+	}
+}
@@ -0,0 +1,439 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.util.Arrays;
+
+/*
+
+	Software Rasterizer
+
+	Draws straight into the int[] of a TYPE_INT_ARGB image, following
+	MIDP pixel rules:
+
+	- fills cover the pixels whose centers are inside the shape, so
+	  fillRect(x, y, w, h) covers w*h pixels
+	- outlines are one pixel wide and cover one more column and row
+	  than the fill, drawRect(x, y, w, h) covers (w+1)*(h+1)
+	- lines include both end points
+	- arc angles are in degrees, counter-clockwise from 3 o'clock, and
+	  relative to the bounding box, so 45 is always the top right corner
+	- polygons are filled with the even-odd rule
+
+	Translucent colors are blended source over, like Java2D's default.
+
+*/
+
+public class SoftwareRasterizer implements Rasterizer
+{
+	private int[] data;
+	private int width;
+	private int height;
+
+	private int color = 0xFF000000;
+	private int alpha = 0xFF;
+
+	private int translateX = 0;
+	private int translateY = 0;
+
+	// Clip in canvas coordinates, right and bottom are exclusive //
+	private int clipLeft;
+	private int clipTop;
+	private int clipRight;
+	private int clipBottom;
+
+	// Row spans and polygon edge crossings, reused between calls //
+	private int spanLeft;
+	private int spanRight;
+	private int[] crossings = new int[16];
+	private int[] edgeTop = new int[16];
+	private int[] edgeBottom = new int[16];
+	private double[] edgeX = new double[16];
+	private double[] edgeStep = new double[16];
+
+	private int[] triangleX = new int[3];
+	private int[] triangleY = new int[3];
+
+	public SoftwareRasterizer(BufferedImage canvas)
+	{
+		data = ((DataBufferInt)canvas.getRaster().getDataBuffer()).getData();
+		width = canvas.getWidth();
+		height = canvas.getHeight();
+		setClip(0, 0, width, height);
+	}
+
+	/*
+		The image types this rasterizer can draw into.
+	*/
+	public static boolean supports(BufferedImage canvas)
+	{
+		return canvas.getType()==BufferedImage.TYPE_INT_ARGB;
+	}
+
+	public void setColor(int argb)
+	{
+		color = argb;
+		alpha = argb>>>24;
+	}
+
+	public void setTranslate(int x, int y)
+	{
+		translateX = x;
+		translateY = y;
+	}
+
+	public void setClip(int x, int y, int width, int height)
+	{
+		clipLeft = Math.max(0, x);
+		clipTop = Math.max(0, y);
+		clipRight = Math.min(this.width, x+width);
+		clipBottom = Math.min(this.height, y+height);
+	}
+
+	public void clearRect(int x, int y, int width, int height)
+	{
+		if(width<=0 || height<=0) { return; }
+		x += translateX;
+		y += translateY;
+		int left = Math.max(x, clipLeft);
+		int right = Math.min(x+width, clipRight);
+		int bottom = Math.min(y+height, clipBottom);
+		if(left>=right) { return; }
+		for(int row=Math.max(y, clipTop); row<bottom; row++)
+		{
+			Arrays.fill(data, row*this.width+left, row*this.width+right, 0);
+		}
+	}
+
+	public void fillRect(int x, int y, int width, int height)
+	{
+		if(width<=0 || height<=0) { return; }
+		fill(x+translateX, y+translateY, x+translateX+width, y+translateY+height);
+	}
+
+	public void drawRect(int x, int y, int width, int height)
+	{
+		if(width<0 || height<0) { return; }
+		x += translateX;
+		y += translateY;
+		if(width==0 || height==0)
+		{
+			fill(x, y, x+width+1, y+height+1);
+			return;
+		}
+		fill(x, y, x+width+1, y+1);
+		fill(x, y+height, x+width+1, y+height+1);
+		fill(x, y+1, x+1, y+height);
+		fill(x+width, y+1, x+width+1, y+height);
+	}
+
+	public void drawLine(int x1, int y1, int x2, int y2)
+	{
+		x1 += translateX;
+		y1 += translateY;
+		x2 += translateX;
+		y2 += translateY;
+
+		if(y1==y2)
+		{
+			fill(Math.min(x1, x2), y1, Math.max(x1, x2)+1, y1+1);
+			return;
+		}
+		if(x1==x2)
+		{
+			fill(x1, Math.min(y1, y2), x1+1, Math.max(y1, y2)+1);
+			return;
+		}
+		if(Math.max(x1, x2)<clipLeft || Math.min(x1, x2)>=clipRight || Math.max(y1, y2)<clipTop || Math.min(y1, y2)>=clipBottom)
+		{
+			return;
+		}
+
+		// Bresenham //
+		int dx = Math.abs(x2-x1);
+		int dy = -Math.abs(y2-y1);
+		int sx = x1<x2 ? 1 : -1;
+		int sy = y1<y2 ? 1 : -1;
+		int error = dx+dy;
+		while(true)
+		{
+			plot(x1, y1);
+			if(x1==x2 && y1==y2) { break; }
+			int e2 = 2*error;
+			if(e2>=dy) { error += dy; x1 += sx; }
+			if(e2<=dx) { error += dx; y1 += sy; }
+		}
+	}
+
+	public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight)
+	{
+		if(width<=0 || height<=0) { return; }
+		x += translateX;
+		y += translateY;
+		double rx = Math.min(Math.abs(arcWidth), width)/2.0;
+		double ry = Math.min(Math.abs(arcHeight), height)/2.0;
+		int bottom = Math.min(y+height, clipBottom);
+		for(int row=Math.max(y, clipTop); row<bottom; row++)
+		{
+			if(roundSpan(row, x, y, width, height, rx, ry)) { span(row, spanLeft, spanRight); }
+		}
+	}
+
+	public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight)
+	{
+		if(width<0 || height<0) { return; }
+		x += translateX;
+		y += translateY;
+		double rx = Math.min(Math.abs(arcWidth), width+1)/2.0;
+		double ry = Math.min(Math.abs(arcHeight), height+1)/2.0;
+		outline(x, y, width, height, rx, ry, 0, 360);
+	}
+
+	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle)
+	{
+		if(width<=0 || height<=0 || arcAngle==0) { return; }
+		x += translateX;
+		y += translateY;
+		double rx = width/2.0;
+		double ry = height/2.0;
+		double cx = x+rx;
+		double cy = y+ry;
+		int start = startAngle;
+		if(arcAngle<0) { start += arcAngle; arcAngle = -arcAngle; }
+		start = ((start%360)+360)%360;
+
+		int bottom = Math.min(y+height, clipBottom);
+		for(int row=Math.max(y, clipTop); row<bottom; row++)
+		{
+			if(!roundSpan(row, x, y, width, height, rx, ry)) { continue; }
+			if(arcAngle>=360)
+			{
+				span(row, spanLeft, spanRight);
+				continue;
+			}
+			int right = Math.min(spanRight, clipRight);
+			for(int col=Math.max(spanLeft, clipLeft); col<right; col++)
+			{
+				if(inArc(col, row, cx, cy, width, height, start, arcAngle)) { blend(row*this.width+col); }
+			}
+		}
+	}
+
+	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle)
+	{
+		if(width<0 || height<0 || arcAngle==0) { return; }
+		x += translateX;
+		y += translateY;
+		int start = startAngle;
+		if(arcAngle<0) { start += arcAngle; arcAngle = -arcAngle; }
+		start = ((start%360)+360)%360;
+		outline(x, y, width, height, (width+1)/2.0, (height+1)/2.0, start, Math.min(arcAngle, 360));
+	}
+
+	public void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3)
+	{
+		triangleX[0] = x1; triangleX[1] = x2; triangleX[2] = x3;
+		triangleY[0] = y1; triangleY[1] = y2; triangleY[2] = y3;
+		fillPolygon(triangleX, triangleY, 3);
+	}
+
+	public void fillPolygon(int[] x, int[] y, int nPoints)
+	{
+		if(nPoints<3) { return; }
+		if(crossings.length<nPoints)
+		{
+			crossings = new int[nPoints];
+			edgeTop = new int[nPoints];
+			edgeBottom = new int[nPoints];
+			edgeX = new double[nPoints];
+			edgeStep = new double[nPoints];
+		}
+
+		// Edges cover the rows whose pixel centers lie between their ends //
+		int edges = 0;
+		int top = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		for(int i=0; i<nPoints; i++)
+		{
+			int j = i+1==nPoints ? 0 : i+1;
+			if(y[i]==y[j]) { continue; }
+			int a = y[i]<y[j] ? i : j;
+			int b = a==i ? j : i;
+			edgeTop[edges] = y[a]+translateY;
+			edgeBottom[edges] = y[b]+translateY;
+			edgeStep[edges] = (x[b]-x[a]) / (double)(y[b]-y[a]);
+			edgeX[edges] = x[a]+translateX + 0.5*edgeStep[edges];
+			top = Math.min(top, edgeTop[edges]);
+			bottom = Math.max(bottom, edgeBottom[edges]);
+			edges++;
+		}
+		top = Math.max(top, clipTop);
+		bottom = Math.min(bottom, clipBottom);
+
+		for(int row=top; row<bottom; row++)
+		{
+			int count = 0;
+			for(int i=0; i<edges; i++)
+			{
+				if(row<edgeTop[i] || row>=edgeBottom[i]) { continue; }
+				int col = (int)Math.ceil(edgeX[i] + (row-edgeTop[i])*edgeStep[i] - 0.5);
+
+				// insertion sort, polygons have few edges //
+				int k = count++;
+				while(k>0 && crossings[k-1]>col) { crossings[k] = crossings[k-1]; k--; }
+				crossings[k] = col;
+			}
+			for(int i=0; i+1<count; i+=2)
+			{
+				span(row, crossings[i], crossings[i+1]);
+			}
+		}
+	}
+
+	public void drawPolygon(int[] x, int[] y, int nPoints)
+	{
+		for(int i=0; i<nPoints; i++)
+		{
+			int j = i+1==nPoints ? 0 : i+1;
+			drawLine(x[i], y[i], x[j], y[j]);
+		}
+	}
+
+	/*
+		Outline of a round rect (or ellipse, when the radii are half the
+		size) covering width+1 by height+1 pixels: the pixels of the
+		filled shape that have a neighbour above, below or to the side
+		outside it. Arcs keep only the pixels within the angle range.
+	*/
+	private void outline(int x, int y, int width, int height, double rx, double ry, int start, int arc)
+	{
+		double cx = x+(width+1)/2.0;
+		double cy = y+(height+1)/2.0;
+
+		int bottom = Math.min(y+height+1, clipBottom);
+		for(int row=Math.max(y, clipTop); row<bottom; row++)
+		{
+			if(!roundSpan(row, x, y, width+1, height+1, rx, ry)) { continue; }
+			int outerLeft = spanLeft;
+			int outerRight = spanRight;
+
+			// Interior, pixels with all four neighbours inside //
+			int innerLeft = outerLeft+1;
+			int innerRight = outerRight-1;
+			if(roundSpan(row-1, x, y, width+1, height+1, rx, ry))
+			{
+				innerLeft = Math.max(innerLeft, spanLeft);
+				innerRight = Math.min(innerRight, spanRight);
+			}
+			else { innerRight = innerLeft; }
+			if(roundSpan(row+1, x, y, width+1, height+1, rx, ry))
+			{
+				innerLeft = Math.max(innerLeft, spanLeft);
+				innerRight = Math.min(innerRight, spanRight);
+			}
+			else { innerRight = innerLeft; }
+			if(innerRight<=innerLeft) { innerLeft = outerRight; innerRight = outerRight; }
+
+			if(arc>=360)
+			{
+				span(row, outerLeft, innerLeft);
+				span(row, innerRight, outerRight);
+				continue;
+			}
+			int right = Math.min(outerRight, clipRight);
+			for(int col=Math.max(outerLeft, clipLeft); col<right; col++)
+			{
+				if(col>=innerLeft && col<innerRight) { continue; }
+				if(inArc(col, row, cx, cy, width+1, height+1, start, arc)) { blend(row*this.width+col); }
+			}
+		}
+	}
+
+	/*
+		Sets spanLeft and spanRight to the pixels of a row inside a round
+		rect, false if there are none.
+	*/
+	private boolean roundSpan(int row, int x, int y, int width, int height, double rx, double ry)
+	{
+		double center = row+0.5;
+		if(center<y || center>=y+height) { return false; }
+
+		double inset = 0;
+		double d = 0;
+		if(center<y+ry) { d = y+ry-center; }
+		else if(center>y+height-ry) { d = center-(y+height-ry); }
+		if(d>0)
+		{
+			double t = d/ry;
+			inset = rx - rx*Math.sqrt(Math.max(0, 1-t*t));
+		}
+		spanLeft = (int)Math.ceil(x+inset-0.5);
+		spanRight = (int)Math.ceil(x+width-inset-0.5);
+		return spanLeft<spanRight;
+	}
+
+	private boolean inArc(int col, int row, double cx, double cy, int width, int height, int start, int arc)
+	{
+		double angle = Math.toDegrees(Math.atan2((cy-row-0.5)/height, (col+0.5-cx)/width));
+		double offset = angle-start;
+		while(offset<0) { offset += 360; }
+		return offset<=arc;
+	}
+
+	/*
+		Fills canvas coordinates x1 to x2, y1 to y2, exclusive.
+	*/
+	private void fill(int x1, int y1, int x2, int y2)
+	{
+		int bottom = Math.min(y2, clipBottom);
+		for(int row=Math.max(y1, clipTop); row<bottom; row++)
+		{
+			span(row, x1, x2);
+		}
+	}
+
+	private void span(int row, int left, int right)
+	{
+		if(row<clipTop || row>=clipBottom || alpha==0) { return; }
+		left = Math.max(left, clipLeft);
+		right = Math.min(right, clipRight);
+		if(left>=right) { return; }
+		int start = row*width;
+		if(alpha==0xFF)
+		{
+			Arrays.fill(data, start+left, start+right, color);
+			return;
+		}
+		for(int i=start+left; i<start+right; i++) { blend(i); }
+	}
+
+	private void plot(int x, int y)
+	{
+		if(x<clipLeft || x>=clipRight || y<clipTop || y>=clipBottom) { return; }
+		blend(y*width+x);
+	}
+
+	private void blend(int i)
+	{
+		if(alpha==0xFF) { data[i] = color; return; }
+		if(alpha==0) { return; }
+		data[i] = Blitter.blend(color, data[i]);
+	}
+}
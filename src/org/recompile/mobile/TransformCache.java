@@ -0,0 +1,206 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+
+	Transform Cache
+
+	Least-recently-used cache of transformed image regions, for sprites
+	drawn mirrored or rotated every frame. Blocks are ARGB pixels in the
+	transformed orientation, rows packed. Entries are keyed by the source
+	image, its version (bumped whenever it is drawn on), the region and
+	the Sprite transform, so a changed image simply stops hitting.
+	Keys hold the image weakly, entries for collected images are dropped
+	on the next lookup.
+
+*/
+
+public class TransformCache
+{
+	private LinkedHashMap<Key, int[]> entries = new LinkedHashMap<Key, int[]>(64, 0.75f, true);
+
+	// Lookups reuse one key //
+	private Key probe = new Key();
+
+	private ReferenceQueue<PlatformImage> collected = new ReferenceQueue<PlatformImage>();
+
+	private long budget;
+	private long size = 0;
+
+	private int hits = 0;
+	private int misses = 0;
+	private int evictions = 0;
+
+	public TransformCache(long budget)
+	{
+		this.budget = budget;
+	}
+
+	public synchronized int[] get(PlatformImage image, int x, int y, int width, int height, int transform)
+	{
+		purge();
+		probe.set(image, x, y, width, height, transform);
+		int[] block = entries.get(probe);
+		probe.image = null;
+		if(block==null)
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		return block;
+	}
+
+	public synchronized void put(PlatformImage image, int x, int y, int width, int height, int transform, int[] block)
+	{
+		long length = block.length*4L;
+		if(length>budget) { return; }
+
+		purge();
+		Key key = new Key();
+		key.set(image, x, y, width, height, transform);
+		key.ref = new ImageRef(image, collected, key);
+		key.image = null;
+		int[] old = entries.put(key, block);
+		if(old!=null) { size -= old.length*4L; }
+		size += length;
+		trim();
+	}
+
+	public synchronized void setBudget(long budget)
+	{
+		this.budget = budget;
+		trim();
+	}
+
+	private void purge()
+	{
+		ImageRef ref;
+		while((ref = (ImageRef)collected.poll())!=null)
+		{
+			int[] block = entries.remove(ref.key);
+			if(block!=null) { size -= block.length*4L; }
+		}
+	}
+
+	private void trim()
+	{
+		Iterator<Map.Entry<Key, int[]>> it = entries.entrySet().iterator();
+		while(size>budget && it.hasNext())
+		{
+			size -= it.next().getValue().length*4L;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		size = 0;
+	}
+
+	public synchronized long getSize() { return size; }
+
+	public synchronized int getHits() { return hits; }
+
+	public synchronized int getMisses() { return misses; }
+
+	public synchronized int getEvictions() { return evictions; }
+
+	public synchronized double getHitRate()
+	{
+		if(hits+misses==0) { return 0; }
+		return hits / (double)(hits+misses);
+	}
+
+	public void printStats()
+	{
+		Mobile.log("Transform Cache: " + getHits() + " hits, " + getMisses() + " misses (" + String.format("%.1f", getHitRate()*100) + "% hit rate), " + getEvictions() + " evictions, " + (getSize()/1024) + "KB used");
+	}
+
+	private static class Key
+	{
+		// image is set on the lookup probe, ref on stored keys //
+		public PlatformImage image;
+		public ImageRef ref;
+		public int hash;
+		public int version;
+		public int x;
+		public int y;
+		public int width;
+		public int height;
+		public int transform;
+
+		public void set(PlatformImage image, int x, int y, int width, int height, int transform)
+		{
+			this.image = image;
+			this.version = image.version;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.transform = transform;
+
+			int h = System.identityHashCode(image);
+			h = h*31 + version;
+			h = h*31 + x;
+			h = h*31 + y;
+			h = h*31 + width;
+			h = h*31 + height;
+			hash = h*31 + transform;
+		}
+
+		public PlatformImage target()
+		{
+			return ref!=null ? ref.get() : image;
+		}
+
+		public boolean equals(Object o)
+		{
+			if(o==this) { return true; }
+			if(!(o instanceof Key)) { return false; }
+			Key k = (Key)o;
+			PlatformImage t = target();
+			return t!=null && t==k.target() && version==k.version && x==k.x && y==k.y && width==k.width && height==k.height && transform==k.transform;
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+	}
+
+	private static class ImageRef extends WeakReference<PlatformImage>
+	{
+		public Key key;
+
+		public ImageRef(PlatformImage image, ReferenceQueue<PlatformImage> queue, Key key)
+		{
+			super(image, queue);
+			this.key = key;
+		}
+	}
+}
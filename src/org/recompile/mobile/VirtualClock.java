@@ -0,0 +1,278 @@
+/*
+	This file is part of FreeJ2ME.
+
+	FreeJ2ME is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	FreeJ2ME is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU General Public License for more details.
+
+	You should have received a copy of the GNU General Public License
+	along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
+*/
+package org.recompile.mobile;
+
+import java.util.ArrayList;
+
+/*
+
+	Virtual Clock
+
+	MIDlet calls to Thread.sleep, System.currentTimeMillis and
+	Object.wait(long) are redirected here by MIDletLoader.
+
+	speed 1 is real time, speed 2 runs twice as fast, etc.
+	speed 0 is unthrottled: sleeps return at once and time jumps ahead.
+	In step mode time only moves when the platform calls step(). A
+	frontend can drive it by stepping each time awaitSleeper() returns.
+
+*/
+
+public class VirtualClock
+{
+	private double speed = 1;
+	private boolean stepping = false;
+
+	private long baseReal;
+	private long baseVirtual;
+
+	// Deadlines of threads blocked on the clock in step mode //
+	private ArrayList<Long> deadlines = new ArrayList<Long>();
+
+	// Threads in a timed Object.wait in step mode, woken through their monitor //
+	private ArrayList<Waiter> waiters = new ArrayList<Waiter>();
+
+	public VirtualClock()
+	{
+		baseReal = System.nanoTime();
+		baseVirtual = System.currentTimeMillis();
+	}
+
+	public synchronized long currentTimeMillis()
+	{
+		if(stepping) { return baseVirtual; }
+		long elapsed = System.nanoTime() - baseReal;
+		if(speed>0) { return baseVirtual + (long)(elapsed * speed / 1000000); }
+		return baseVirtual + elapsed / 1000000;
+	}
+
+	public synchronized double getSpeed() { return speed; }
+
+	public synchronized void setSpeed(double value)
+	{
+		rebase();
+		speed = Math.max(0, value);
+		notifyAll();
+	}
+
+	public synchronized boolean isStepping() { return stepping; }
+
+	public void setStepping(boolean value)
+	{
+		ArrayList<Object> due;
+		synchronized(this)
+		{
+			rebase();
+			stepping = value;
+			notifyAll();
+			due = dueMonitors();
+		}
+		wake(due);
+	}
+
+	/*
+		Advances time in step mode, waking any sleepers that are due.
+	*/
+	public void step(long millis)
+	{
+		ArrayList<Object> due;
+		synchronized(this)
+		{
+			if(!stepping) { return; }
+			baseVirtual += millis;
+			notifyAll();
+			due = dueMonitors();
+		}
+		wake(due);
+	}
+
+	/*
+		Blocks until, in step mode, some thread is waiting for a time
+		that hasn't been reached yet.
+	*/
+	public synchronized void awaitSleeper() throws InterruptedException
+	{
+		while(true)
+		{
+			if(stepping)
+			{
+				for(int i=0; i<deadlines.size(); i++)
+				{
+					if(deadlines.get(i)>baseVirtual) { return; }
+				}
+			}
+			wait();
+		}
+	}
+
+	public void sleep(long millis) throws InterruptedException
+	{
+		if(millis<0) { throw new IllegalArgumentException("timeout value is negative"); }
+
+		double rate;
+		long deadline = 0;
+		synchronized(this)
+		{
+			rate = speed;
+			if(stepping)
+			{
+				Long due = baseVirtual + millis;
+				deadlines.add(due);
+				notifyAll();
+				try
+				{
+					while(stepping && baseVirtual<due)
+					{
+						wait();
+					}
+				}
+				finally
+				{
+					deadlines.remove(due);
+				}
+				return;
+			}
+			if(rate==0)
+			{
+				deadline = currentTimeMillis() + millis;
+			}
+		}
+
+		if(rate==0)
+		{
+			if(Thread.interrupted()) { throw new InterruptedException(); }
+			Thread.yield();
+			synchronized(this) { advanceTo(deadline); }
+		}
+		else if(rate==1)
+		{
+			Thread.sleep(millis);
+		}
+		else
+		{
+			long nanos = (long)(millis * 1000000 / rate);
+			Thread.sleep(nanos / 1000000, (int)(nanos % 1000000));
+		}
+	}
+
+	/*
+		Object.wait(timeout) replacement. Returning early is allowed
+		by the Object.wait contract, so the scaled modes just shorten it.
+		Every mode returns as soon as the monitor is notified. In step mode
+		the wait has no real timeout, step() notifies the monitor once the
+		virtual deadline is reached.
+	*/
+	public void wait(Object monitor, long millis) throws InterruptedException
+	{
+		double rate = getSpeed();
+		if(millis==0 || (rate==1 && !isStepping()))
+		{
+			monitor.wait(millis);
+			return;
+		}
+		if(millis<0) { throw new IllegalArgumentException("timeout value is negative"); }
+
+		if(isStepping())
+		{
+			// Registered while holding monitor, so step() can't notify before we wait //
+			Waiter waiter;
+			synchronized(this)
+			{
+				waiter = new Waiter(monitor, baseVirtual + millis);
+				deadlines.add(waiter.deadline);
+				waiters.add(waiter);
+				notifyAll();
+			}
+			try
+			{
+				monitor.wait();
+			}
+			finally
+			{
+				synchronized(this)
+				{
+					deadlines.remove(waiter.deadline);
+					waiters.remove(waiter);
+				}
+			}
+			return;
+		}
+		if(rate==0)
+		{
+			long deadline;
+			synchronized(this) { deadline = currentTimeMillis() + millis; }
+			monitor.wait(1);
+			synchronized(this) { advanceTo(deadline); }
+			return;
+		}
+		monitor.wait(Math.max(1, (long)(millis / rate)));
+	}
+
+	/*
+		Monitors of step mode waiters whose deadline has passed, or all
+		of them once step mode is off. Called with the clock locked, the
+		monitors are notified after it is released.
+	*/
+	private ArrayList<Object> dueMonitors()
+	{
+		ArrayList<Object> due = new ArrayList<Object>();
+		for(int i=0; i<waiters.size(); i++)
+		{
+			Waiter waiter = waiters.get(i);
+			if(!stepping || waiter.deadline<=baseVirtual) { due.add(waiter.monitor); }
+		}
+		return due;
+	}
+
+	private static void wake(ArrayList<Object> monitors)
+	{
+		for(int i=0; i<monitors.size(); i++)
+		{
+			Object monitor = monitors.get(i);
+			synchronized(monitor) { monitor.notifyAll(); }
+		}
+	}
+
+	private void rebase()
+	{
+		baseVirtual = currentTimeMillis();
+		baseReal = System.nanoTime();
+	}
+
+	/*
+		Unthrottled sleeps end by moving the clock to their deadline,
+		if it isn't there yet. Threads sleeping at the same time share
+		the jump instead of each adding their own.
+	*/
+	private void advanceTo(long deadline)
+	{
+		long now = currentTimeMillis();
+		if(now<deadline) { baseVirtual += deadline-now; }
+	}
+
+	private static class Waiter
+	{
+		public Object monitor;
+		public Long deadline;
+
+		public Waiter(Object monitor, long deadline)
+		{
+			this.monitor = monitor;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -28,6 +28,7 @@ along with FreeJ2ME.  If not, see http://www.gnu.org/licenses/
 #include <iomanip>
 #include <assert.h>
 #include <map>
+#include <time.h>
 
 #include <pthread.h>
 #include <SDL2/SDL.h>
@@ -120,13 +121,22 @@ void removeJoystick(SDL_JoystickID joyId)
 
 void sendKey(int key, bool pressed, bool joystick)
 {
-	unsigned char bytes [5];
-	bytes[0] = (char) (joystick << 4) | pressed;
+	// high bit of the type: followed by the send time, see PacketReader.java
+	struct timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	unsigned long long ns = (unsigned long long)now.tv_sec * 1000000000ULL + now.tv_nsec;
+
+	unsigned char bytes [13];
+	bytes[0] = (char) (0x80 | (joystick << 4) | pressed);
 	bytes[1] = (char) (key >> 24);
 	bytes[2] = (char) (key >> 16);
 	bytes[3] = (char) (key >> 8);
 	bytes[4] = (char) (key);
-	fwrite(&bytes, sizeof(char), 5, stdout);
+	for(int i = 0; i < 8; i++)
+	{
+		bytes[5 + i] = (char) (ns >> (56 - 8 * i));
+	}
+	fwrite(&bytes, sizeof(char), 13, stdout);
 }
 
 bool sendQuitEvent()